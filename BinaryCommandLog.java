@@ -0,0 +1,372 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class writes a compact binary command log, the binary form of a command file, and converts command files to
+ * it. Running a log gives exactly the output of running the file it was converted from (see BinaryCommandReader),
+ * without the UTF-8 decoding and the splitting of the text lines.
+ *
+ * The log starts with the magic bytes "BKC1", followed by one record per command. A record is an opcode byte and
+ * the fields of the command:
+ *
+ *  - numbers (IDs, seat counts, rows, refund cuts, ...) as unsigned LEB128 varints, so most take one byte,
+ *  - seat lists as the number of seats followed by the zigzag-encoded differences of consecutive seats, so an
+ *    ascending list like 1_2_3_4 takes one byte per seat,
+ *  - city names as codes of the dictionary of the log; a CITY record with the UTF-8 name comes before the first
+ *    command that uses a city, and the cities are numbered in that order,
+ *  - prices as the varint of their digits and a byte with the number of digits after the decimal point.
+ *
+ * A command is only stored in this form if decoding its record gives back exactly the same line. Any other line,
+ * e.g. an invalid command whose error message quotes its text, is stored as a RAW record with its UTF-8 text.
+ */
+public class BinaryCommandLog implements AutoCloseable {
+    static final byte[] MAGIC = {'B', 'K', 'C', '1'};
+
+    static final int RAW = 0;
+    static final int CITY = 1;
+    static final int INIT_VOYAGE = 2;
+    static final int SELL_TICKET = 3;
+    static final int SELL_SEGMENT = 4;
+    static final int REFUND_TICKET = 5;
+    static final int REFUND_SEGMENT = 6;
+    static final int SELL_BEST = 7;
+    static final int PRINT_VOYAGE = 8;
+    static final int CANCEL_VOYAGE = 9;
+    static final int Z_REPORT = 10;
+    static final int SEARCH_VOYAGES = 11;
+    static final int CANCEL_ROUTE = 12;
+    static final int HOLD_SEATS = 13;
+    static final int CONFIRM_HOLD = 14;
+    static final int RELEASE_HOLD = 15;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_SCALE = 9;
+
+    private final OutputStream out;
+    private final CommandTokenizer command = new CommandTokenizer();
+    private final HashMap<String, Integer> cities = new HashMap<>();
+    private final BinaryCommandReader verifier = new BinaryCommandReader();
+    private byte[] record = new byte[256];
+    private int length;
+    private long commands;
+    private long rawCommands;
+
+    /**
+     * Constructor for the BinaryCommandLog class. Creates the log at the given path, replacing its previous content.
+     *
+     * @param path Path of the log.
+     */
+    public BinaryCommandLog(String path) {
+        try {
+            this.out = new BufferedOutputStream(Files.newOutputStream(Paths.get(path)), BUFFER_SIZE);
+            out.write(MAGIC);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Checks whether a file is a binary command log.
+     *
+     * @param path Path of the file.
+     * @return True if the file starts with the magic bytes of a log.
+     * @throws IOException If the file cannot be read.
+     */
+    public static boolean isLog(String path) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        int read = 0;
+        try (InputStream in = Files.newInputStream(Paths.get(path))) {
+            for (int n; read < magic.length && (n = in.read(magic, read, magic.length - read)) > 0; ) {
+                read += n;
+            }
+        }
+        return read == magic.length && Arrays.equals(magic, MAGIC);
+    }
+
+    /**
+     * Appends a command to the log.
+     *
+     * @param line The command line, trimmed and not empty as CommandReader returns it.
+     */
+    public void append(String line) {
+        length = 0;
+        boolean encoded = encode(command.reset(line)) && line.equals(verifier.decode(record, length));
+        if (!encoded) {
+            length = 0;
+            putByte(RAW);
+            putString(line);
+            rawCommands++;
+        }
+        commands++;
+        write(record, length);
+    }
+
+    /**
+     * @return The number of commands appended.
+     */
+    public long getCommands() {
+        return commands;
+    }
+
+    /**
+     * @return The number of commands stored as RAW records.
+     */
+    public long getRawCommands() {
+        return rawCommands;
+    }
+
+    /**
+     * Flushes and closes the log.
+     */
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Converts a command file to a binary command log.
+     *
+     * @param textPath   Path of the command file.
+     * @param binaryPath Path of the log, replaced if it exists.
+     * @return The log, closed, with the counts of the converted commands.
+     */
+    public static BinaryCommandLog convert(String textPath, String binaryPath) {
+        CommandReader commands = CommandReader.open(textPath, true, true);
+        if (commands == null) {
+            throw new IllegalArgumentException("Cannot read " + textPath);
+        }
+        try (BinaryCommandLog log = new BinaryCommandLog(binaryPath)) {
+            while (commands.hasNext()) {
+                log.append(commands.next());
+            }
+            return log;
+        } finally {
+            commands.close();
+        }
+    }
+
+    /**
+     * Converts a command file to a binary command log, which BookingSystem then runs like the file itself.
+     *
+     * @param args The path of the command file and the path of the log.
+     * @throws IOException If the sizes of the files cannot be read.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: java BinaryCommandLog input.txt input.bin");
+            System.exit(1);
+        }
+        BinaryCommandLog log = convert(args[0], args[1]);
+        long textSize = Files.size(Paths.get(args[0]));
+        long binarySize = Files.size(Paths.get(args[1]));
+        System.out.printf("%d commands (%d raw), %d bytes of text, %d bytes of log (%.1f%%)%n", log.getCommands(),
+                log.getRawCommands(), textSize, binarySize, textSize == 0 ? 0.0 : 100.0 * binarySize / textSize);
+    }
+
+    /**
+     * Encodes a command into the record buffer.
+     *
+     * @return False if the command has no binary form, e.g. because a field that should be a number is not one.
+     */
+    private boolean encode(CommandTokenizer command) {
+        int fields = command.fieldCount();
+        if (command.fieldEquals(0, "SELL_TICKET") && (fields == 3 || fields == 5)) {
+            putByte(fields == 3 ? SELL_TICKET : SELL_SEGMENT);
+            return putInt(1) && putSeats(2) && (fields == 3 || putCity(3) && putCity(4));
+        } else if (command.fieldEquals(0, "REFUND_TICKET") && (fields == 3 || fields == 5)) {
+            putByte(fields == 3 ? REFUND_TICKET : REFUND_SEGMENT);
+            return putInt(1) && putSeats(2) && (fields == 3 || putCity(3) && putCity(4));
+        } else if (command.fieldEquals(0, "INIT_VOYAGE") && fields >= 7) {
+            int type = command.fieldEquals(1, "Minibus") ? 0 : command.fieldEquals(1, "Standard") ? 1
+                    : command.fieldEquals(1, "Premium") ? 2 : -1;
+            if (type < 0 || fields != 7 + type) {
+                return false;
+            }
+            putByte(INIT_VOYAGE);
+            putByte(type);
+            if (!(putInt(2) && putCity(3) && putCity(4) && putInt(5) && putPrice(6))) {
+                return false;
+            }
+            for (int k = 0; k < type; k++) {
+                if (!putInt(7 + k)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (command.fieldEquals(0, "SELL_BEST") && (fields == 3 || fields == 4)) {
+            int seatClass = fields == 3 ? 0 : command.fieldEquals(3, "Premium") ? 1
+                    : command.fieldEquals(3, "Regular") ? 2 : -1;
+            putByte(SELL_BEST);
+            if (seatClass < 0 || !putInt(1) || !putInt(2)) {
+                return false;
+            }
+            putByte(seatClass);
+            return true;
+        } else if (command.fieldEquals(0, "PRINT_VOYAGE") && fields == 2) {
+            putByte(PRINT_VOYAGE);
+            return putInt(1);
+        } else if (command.fieldEquals(0, "CANCEL_VOYAGE") && fields == 2) {
+            putByte(CANCEL_VOYAGE);
+            return putInt(1);
+        } else if (command.fieldEquals(0, "Z_REPORT") && fields == 1) {
+            putByte(Z_REPORT);
+            return true;
+        } else if (command.fieldEquals(0, "SEARCH_VOYAGES") && fields == 4) {
+            putByte(SEARCH_VOYAGES);
+            return putCity(1) && putCity(2) && putInt(3);
+        } else if (command.fieldEquals(0, "CANCEL_ROUTE") && fields == 3) {
+            putByte(CANCEL_ROUTE);
+            return putCity(1) && putCity(2);
+        } else if (command.fieldEquals(0, "HOLD_SEATS") && fields == 4) {
+            putByte(HOLD_SEATS);
+            return putInt(1) && putSeats(2) && putInt(3);
+        } else if (command.fieldEquals(0, "CONFIRM_HOLD") && fields == 2) {
+            putByte(CONFIRM_HOLD);
+            return putInt(1);
+        } else if (command.fieldEquals(0, "RELEASE_HOLD") && fields == 2) {
+            putByte(RELEASE_HOLD);
+            return putInt(1);
+        }
+        return false;
+    }
+
+    /**
+     * Puts a field that is a non-negative integer.
+     */
+    private boolean putInt(int field) {
+        long value = command.intField(field);
+        if (value == CommandTokenizer.NOT_AN_INT || value < 0) {
+            return false;
+        }
+        putVarint((int) value);
+        return true;
+    }
+
+    /**
+     * Puts a seat list of non-negative integers separated by underscores.
+     */
+    private boolean putSeats(int field) {
+        int count = command.splitField(field, '_');
+        putVarint(count);
+        int previous = 0;
+        for (int k = 0; k < count; k++) {
+            long seat = command.intSubField(k);
+            if (seat == CommandTokenizer.NOT_AN_INT || seat < 0) {
+                return false;
+            }
+            int delta = (int) seat - previous;
+            putVarint((delta << 1) ^ (delta >> 31));
+            previous = (int) seat;
+        }
+        return true;
+    }
+
+    /**
+     * Puts a price of decimal digits with at most one decimal point, e.g. "100" or "47.50".
+     */
+    private boolean putPrice(int field) {
+        String text = command.field(field);
+        long unscaled = 0;
+        int scale = -1;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '.' && scale < 0) {
+                scale = 0;
+            } else if (c >= '0' && c <= '9' && unscaled < Long.MAX_VALUE / 10 - 9) {
+                unscaled = unscaled * 10 + (c - '0');
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else {
+                return false;
+            }
+        }
+        if (scale > MAX_SCALE) {
+            return false;
+        }
+        putVarlong(unscaled);
+        putByte(Math.max(scale, 0));
+        return true;
+    }
+
+    /**
+     * Puts the code of a city, defining the city first if it is new to the log.
+     */
+    private boolean putCity(int field) {
+        String name = command.field(field);
+        Integer code = cities.get(name);
+        if (code == null) {
+            code = cities.size();
+            cities.put(name, code);
+            verifier.defineCity(name);
+            // The definition goes straight to the log, ahead of the record that is being encoded
+            int recordLength = length;
+            byte[] pending = record;
+            record = new byte[Math.max(256, name.length() * 3 + 8)];
+            length = 0;
+            putByte(CITY);
+            putString(name);
+            write(record, length);
+            record = pending;
+            length = recordLength;
+        }
+        putVarint(code);
+        return true;
+    }
+
+    private void putString(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        putVarint(bytes.length);
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, record, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void putVarint(int value) {
+        ensure(5);
+        while ((value & ~0x7f) != 0) {
+            record[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        record[length++] = (byte) value;
+    }
+
+    private void putVarlong(long value) {
+        ensure(10);
+        while ((value & ~0x7fL) != 0) {
+            record[length++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        record[length++] = (byte) value;
+    }
+
+    private void putByte(int value) {
+        ensure(1);
+        record[length++] = (byte) value;
+    }
+
+    private void ensure(int bytes) {
+        if (length + bytes > record.length) {
+            record = Arrays.copyOf(record, Math.max(record.length * 2, length + bytes));
+        }
+    }
+
+    private void write(byte[] bytes, int count) {
+        try {
+            out.write(bytes, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class reads a binary command log written by BinaryCommandLog and returns its commands as the lines of the
+ * text file they were converted from, so a binary log runs through every path that reads a command file and writes
+ * exactly the same output. CommandReader.open returns one for a file that starts with the magic bytes of the log.
+ *
+ * A line is rebuilt from its record with a few appends to a reused builder: numbers are read as varints, seat
+ * lists as varint deltas and city names as dictionary codes whose names were decoded once, when the city first
+ * appeared in the log. No text is decoded or split except for the commands stored as raw lines.
+ */
+public class BinaryCommandReader extends CommandReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String[] BUS_TYPES = {"Minibus", "Standard", "Premium"};
+    private static final String[] SEAT_CLASSES = {null, "Premium", "Regular"};
+
+    private final InputStream in;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private String[] cities = new String[64];
+    private int cityCount;
+    private final StringBuilder line = new StringBuilder(128);
+    private String nextLine;
+
+    /**
+     * Constructor for the BinaryCommandReader class. Checks the magic bytes and reads the first command, so that
+     * hasNext() can answer immediately.
+     *
+     * @param in The stream of the log, positioned at its start.
+     */
+    public BinaryCommandReader(InputStream in) {
+        this.in = in;
+        this.buffer = new byte[BUFFER_SIZE];
+        for (byte magic : BinaryCommandLog.MAGIC) {
+            if (read() != magic) {
+                throw new IllegalStateException("The file is not a binary command log!");
+            }
+        }
+        nextLine = decode();
+    }
+
+    /**
+     * Constructor for a reader that decodes single records from memory, used by BinaryCommandLog to check that a
+     * record gives back its line.
+     */
+    BinaryCommandReader() {
+        this.in = null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return nextLine != null;
+    }
+
+    @Override
+    public String next() {
+        String current = nextLine;
+        if (current != null) {
+            nextLine = decode();
+        }
+        return current;
+    }
+
+    @Override
+    public void close() {
+        try {
+            in.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds a city to the dictionary, with the next code.
+     *
+     * @param name The name of the city.
+     */
+    void defineCity(String name) {
+        if (cityCount == cities.length) {
+            String[] grown = new String[cityCount * 2];
+            System.arraycopy(cities, 0, grown, 0, cityCount);
+            cities = grown;
+        }
+        cities[cityCount++] = name;
+    }
+
+    /**
+     * Decodes the single command record in the given bytes.
+     *
+     * @param record The record.
+     * @param length The length of the record.
+     * @return The line of the command.
+     */
+    String decode(byte[] record, int length) {
+        buffer = record;
+        position = 0;
+        limit = length;
+        return decode();
+    }
+
+    /**
+     * Decodes the next command, taking in the city definitions before it.
+     *
+     * @return The line of the command, or null at the end of the log.
+     */
+    private String decode() {
+        int code;
+        while ((code = read()) == BinaryCommandLog.CITY) {
+            defineCity(readString());
+        }
+        if (code < 0) {
+            return null;
+        }
+        StringBuilder text = line;
+        text.setLength(0);
+        switch (code) {
+            case BinaryCommandLog.RAW:
+                return readString();
+            case BinaryCommandLog.INIT_VOYAGE:
+                int type = readByte();
+                if (type >= BUS_TYPES.length) {
+                    throw corrupt();
+                }
+                text.append("INIT_VOYAGE\t").append(BUS_TYPES[type]).append('\t').append(readVarint());
+                text.append('\t').append(readCity()).append('\t').append(readCity());
+                text.append('\t').append(readVarint()).append('\t');
+                appendPrice(text);
+                for (int k = 0; k < type; k++) { //The refund cut of a Standard, and the premium fee of a Premium
+                    text.append('\t').append(readVarint());
+                }
+                break;
+            case BinaryCommandLog.SELL_TICKET:
+            case BinaryCommandLog.SELL_SEGMENT:
+                text.append("SELL_TICKET\t").append(readVarint()).append('\t');
+                appendSeats(text);
+                if (code == BinaryCommandLog.SELL_SEGMENT) {
+                    text.append('\t').append(readCity()).append('\t').append(readCity());
+                }
+                break;
+            case BinaryCommandLog.REFUND_TICKET:
+            case BinaryCommandLog.REFUND_SEGMENT:
+                text.append("REFUND_TICKET\t").append(readVarint()).append('\t');
+                appendSeats(text);
+                if (code == BinaryCommandLog.REFUND_SEGMENT) {
+                    text.append('\t').append(readCity()).append('\t').append(readCity());
+                }
+                break;
+            case BinaryCommandLog.SELL_BEST:
+                text.append("SELL_BEST\t").append(readVarint()).append('\t').append(readVarint());
+                int seatClass = readByte();
+                if (seatClass >= SEAT_CLASSES.length) {
+                    throw corrupt();
+                }
+                if (seatClass > 0) {
+                    text.append('\t').append(SEAT_CLASSES[seatClass]);
+                }
+                break;
+            case BinaryCommandLog.PRINT_VOYAGE:
+                text.append("PRINT_VOYAGE\t").append(readVarint());
+                break;
+            case BinaryCommandLog.CANCEL_VOYAGE:
+                text.append("CANCEL_VOYAGE\t").append(readVarint());
+                break;
+            case BinaryCommandLog.Z_REPORT:
+                return "Z_REPORT";
+            case BinaryCommandLog.SEARCH_VOYAGES:
+                text.append("SEARCH_VOYAGES\t").append(readCity()).append('\t').append(readCity());
+                text.append('\t').append(readVarint());
+                break;
+            case BinaryCommandLog.CANCEL_ROUTE:
+                text.append("CANCEL_ROUTE\t").append(readCity()).append('\t').append(readCity());
+                break;
+            case BinaryCommandLog.HOLD_SEATS:
+                text.append("HOLD_SEATS\t").append(readVarint()).append('\t');
+                appendSeats(text);
+                text.append('\t').append(readVarint());
+                break;
+            case BinaryCommandLog.CONFIRM_HOLD:
+                text.append("CONFIRM_HOLD\t").append(readVarint());
+                break;
+            case BinaryCommandLog.RELEASE_HOLD:
+                text.append("RELEASE_HOLD\t").append(readVarint());
+                break;
+            default:
+                throw corrupt();
+        }
+        return text.toString();
+    }
+
+    /**
+     * Appends a seat list, stored as its length and the zigzag-encoded differences of consecutive seats.
+     */
+    private void appendSeats(StringBuilder text) {
+        int count = readVarint();
+        int seat = 0;
+        for (int k = 0; k < count; k++) {
+            int delta = readVarint();
+            seat += (delta >>> 1) ^ -(delta & 1);
+            if (k > 0) {
+                text.append('_');
+            }
+            text.append(seat);
+        }
+    }
+
+    /**
+     * Appends a price, stored as its digits without the decimal point and the number of digits after it.
+     */
+    private void appendPrice(StringBuilder text) {
+        long unscaled = readVarlong();
+        int scale = readByte();
+        if (scale == 0) {
+            text.append(unscaled);
+            return;
+        }
+        String digits = Long.toString(unscaled);
+        for (int k = digits.length(); k <= scale; k++) { //A price below 1 keeps its leading zero, e.g. "0.5"
+            text.append('0');
+        }
+        int point = text.length() + digits.length() - scale;
+        text.append(digits).insert(point, '.');
+    }
+
+    private String readCity() {
+        int code = readVarint();
+        if (code >= cityCount) {
+            throw corrupt();
+        }
+        return cities[code];
+    }
+
+    private String readString() {
+        int length = readVarint();
+        if (limit - position >= length) {
+            String text = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return text;
+        }
+        byte[] bytes = new byte[length];
+        for (int k = 0; k < length; k++) {
+            bytes[k] = (byte) readByte();
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readVarint() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+        throw corrupt();
+    }
+
+    private long readVarlong() {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+        throw corrupt();
+    }
+
+    /**
+     * @return The next byte of a record, which must not end here.
+     */
+    private int readByte() {
+        int b = read();
+        if (b < 0) {
+            throw new IllegalStateException("The binary command log is truncated!");
+        }
+        return b;
+    }
+
+    /**
+     * @return The next byte, or -1 at the end of the log.
+     */
+    private int read() {
+        if (position == limit) {
+            if (in == null) {
+                return -1;
+            }
+            try {
+                int read = in.read(buffer, 0, buffer.length);
+                position = 0;
+                limit = Math.max(read, 0);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (limit == 0) {
+                return -1;
+            }
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private static IllegalStateException corrupt() {
+        return new IllegalStateException("The binary command log is corrupt!");
+    }
+}
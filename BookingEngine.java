@@ -0,0 +1,276 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is a thread-safe booking engine for several sales channels working at the same time. The voyages are
+ * kept in a ConcurrentHashMap shared by every channel, and each channel runs the commands through a PlayGround of
+ * its own, since a PlayGround keeps scratch state for the command it is processing.
+ *
+ * Commands on the same voyage are serialized by the lock of its Bus, so a SELL_TICKET or REFUND_TICKET either
+ * applies to its whole seat group or to none of it; commands on different voyages run in parallel.
+ *
+ * With a journal, a channel returns only after the records of its command are on disk; channels that finish at the
+ * same time share one fsync through the group commit of the journal.
+ *
+ * A channel can also process a batch of commands at once. The SELL_TICKET, SELL_BEST and REFUND_TICKET commands
+ * between two other commands are grouped by voyage, and every group runs under one hold of the lock of its voyage, so
+ * it sees the seats as the previous group left them and no other channel changes them in between. Since sales and
+ * refunds of different voyages do not affect each other, the results are the same as those of running the commands
+ * one by one. The output of the batch is written in command order with one write and the journal is synced once.
+ *
+ * A command that fails with an exception is answered with an error line, and the channel goes on with the next
+ * command, so the other commands of a batch keep their output and their journal records are synced.
+ */
+public class BookingEngine implements AutoCloseable {
+    private static final String[] NO_ARGS = new String[0];
+
+    private final ConcurrentHashMap<Integer, Bus> buses = new ConcurrentHashMap<>();
+    private final RouteIndex routeIndex = new RouteIndex();
+    private volatile SeatHolds holds = new SeatHolds();
+    private final BookingJournal journal;
+    private volatile BookingMetrics metrics;
+
+    /**
+     * Constructor for the BookingEngine class without a journal.
+     */
+    public BookingEngine() {
+        this.journal = null;
+    }
+
+    /**
+     * Constructor for the BookingEngine class that recovers the voyages from a journal and records the
+     * state-changing commands of every channel in it.
+     *
+     * @param journalPath Path of the journal file, created if it does not exist.
+     * @param groupSize   The number of waiting records that starts a sync.
+     */
+    public BookingEngine(String journalPath, int groupSize) {
+        this.journal = BookingJournal.open(journalPath, groupSize, buses);
+    }
+
+    /**
+     * Opens a new sales channel. A channel must only be used by one thread at a time.
+     *
+     * @param output The output sink the results of the channel's commands are written to.
+     * @return The new channel.
+     */
+    public Channel openChannel(OutputSink output) {
+        return new Channel(output);
+    }
+
+    /**
+     * Sets the metrics the commands of the channels opened from now on are recorded in, null for none.
+     *
+     * @param metrics The metrics, shared by the channels.
+     */
+    public void setMetrics(BookingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the seat holds of the channels opened from now on. By default they are on a command clock, which advances
+     * by one command for every command the channels run.
+     *
+     * @param holds The seat holds, shared by the channels.
+     */
+    public void setHolds(SeatHolds holds) {
+        this.holds = holds;
+    }
+
+    /**
+     * @return The voyage registry shared by all channels.
+     */
+    public Map<Integer, Bus> getBuses() {
+        return buses;
+    }
+
+    /**
+     * Makes the journaled commands durable and closes the journal, if there is one.
+     */
+    public void close() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * One sales channel of the engine.
+     */
+    public class Channel {
+        private final PlayGround playGround;
+        private final OutputSink output;
+        // The batches run on a PlayGround of their own, whose output is merged into command order
+        private final FragmentWriter batchText = new FragmentWriter();
+        private final PlayGround batchPlayGround = new PlayGround(new OutputSink(batchText, OutputSink.FlushPolicy.ON_FULL));
+        private final CommandTokenizer tokenizer = new CommandTokenizer();
+        private int[] voyages = new int[16];
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int[] results = new int[16];
+        private char[] merged = new char[1 << 12];
+
+        private Channel(OutputSink output) {
+            this.output = output;
+            this.playGround = new PlayGround(output);
+            this.playGround.setJournal(journal);
+            this.playGround.setRouteIndex(routeIndex);
+            this.playGround.setHolds(holds);
+            this.playGround.setMetrics(metrics);
+            this.batchPlayGround.setJournal(journal);
+            this.batchPlayGround.setRouteIndex(routeIndex);
+            this.batchPlayGround.setHolds(holds);
+            this.batchPlayGround.setMetrics(metrics);
+        }
+
+        /**
+         * Processes one command line with the same grammar and messages as the input files.
+         *
+         * @param line The command line.
+         * @return 0 if the command succeeded, -1 otherwise.
+         */
+        public int execute(String line) {
+            long recorded = playGround.getJournalSequence();
+            playGround.expireHolds(1);
+            int result = run(playGround, line);
+            if (journal != null && playGround.getJournalSequence() != recorded) {
+                journal.commit(playGround.getJournalSequence());
+            }
+            return result;
+        }
+
+        /**
+         * Processes a batch of command lines with the same results as calling execute for each of them in order.
+         * Their output is written in order with one write, each followed by the given delimiter.
+         *
+         * @param lines     The command lines.
+         * @param delimiter Written after the output of every command, e.g. a line break to separate the responses.
+         * @return 0 for every command that succeeded, -1 for the others, in the order of the lines. The array is
+         * reused by the next batch.
+         */
+        public int[] executeBatch(List<String> lines, String delimiter) {
+            int count = lines.size();
+            if (voyages.length < count) {
+                int capacity = Math.max(count, voyages.length * 2);
+                voyages = new int[capacity];
+                starts = new int[capacity];
+                ends = new int[capacity];
+                results = new int[capacity];
+            }
+            for (int i = 0; i < count; i++) {
+                voyages[i] = groupedVoyage(lines.get(i));
+            }
+            batchText.reset();
+            long recorded = batchPlayGround.getJournalSequence();
+            // Expiring locks the voyages of the expired holds, so it runs once before any voyage of the batch is locked
+            batchPlayGround.expireHolds(count);
+            int start = 0;
+            while (start < count) {
+                // Run the sales and refunds up to the next other command grouped by voyage, then that command
+                int end = start;
+                while (end < count && voyages[end] != 0) {
+                    end++;
+                }
+                for (int i = start; i < end; i++) {
+                    if (voyages[i] > 0) {
+                        runVoyage(lines, voyages[i], i, end);
+                    }
+                }
+                if (end < count) {
+                    runCommand(lines, end);
+                }
+                start = end + 1;
+            }
+            writeMerged(count, delimiter);
+            if (journal != null && batchPlayGround.getJournalSequence() != recorded) {
+                journal.commit(batchPlayGround.getJournalSequence());
+            }
+            return results;
+        }
+
+        public OutputSink getOutput() {
+            return output;
+        }
+
+        /**
+         * Runs the commands of one voyage among lines from and to, in order, while holding the lock of the voyage.
+         * Every command that ran is marked with -1 in voyages.
+         */
+        private void runVoyage(List<String> lines, int id, int from, int to) {
+            Bus bus = buses.get(id);
+            if (bus == null) { //The commands only write their errors
+                runGroup(lines, id, from, to);
+                return;
+            }
+            synchronized (bus) {
+                runGroup(lines, id, from, to);
+            }
+        }
+
+        private void runGroup(List<String> lines, int id, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (voyages[i] == id) {
+                    runCommand(lines, i);
+                    voyages[i] = -1;
+                }
+            }
+        }
+
+        /**
+         * Runs one command of the batch; its output is kept in batchText from starts[i] to ends[i].
+         */
+        private void runCommand(List<String> lines, int i) {
+            starts[i] = batchText.length();
+            results[i] = run(batchPlayGround, lines.get(i));
+            ends[i] = batchText.length();
+        }
+
+        /**
+         * Runs one command on one of the PlayGrounds of the channel, answering an exception with an error line.
+         */
+        private int run(PlayGround target, String line) {
+            try {
+                return target.executeCommand(NO_ARGS, line, false, buses);
+            } catch (RuntimeException e) {
+                target.writeFailure(e);
+                return -1;
+            }
+        }
+
+        /**
+         * Writes the outputs of the commands in command order.
+         */
+        private void writeMerged(int count, String delimiter) {
+            int length = batchText.length() + count * delimiter.length();
+            if (merged.length < length) {
+                merged = new char[Math.max(length, merged.length * 2)];
+            }
+            char[] text = batchText.buffer();
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(text, starts[i], merged, position, ends[i] - starts[i]);
+                position += ends[i] - starts[i];
+                delimiter.getChars(0, delimiter.length(), merged, position);
+                position += delimiter.length();
+            }
+            output.write(merged, 0, position);
+        }
+
+        /**
+         * Returns the voyage of a command that is grouped in a batch, or 0 for the other commands, which run in
+         * their place.
+         */
+        private int groupedVoyage(String line) {
+            CommandTokenizer command = tokenizer.reset(line);
+            if (!command.fieldEquals(0, "SELL_TICKET") && !command.fieldEquals(0, "SELL_BEST")
+                    && !command.fieldEquals(0, "REFUND_TICKET")) {
+                return 0;
+            }
+            if (command.fieldCount() < 2) {
+                return 0;
+            }
+            long id = command.intField(1);
+            return id == CommandTokenizer.NOT_AN_INT || id <= 0 ? 0 : (int) id;
+        }
+    }
+}
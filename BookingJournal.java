@@ -0,0 +1,321 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * This class is an append-only binary journal of the commands that change the booking state (INIT_VOYAGE,
+ * SELL_TICKET, REFUND_TICKET and CANCEL_VOYAGE). When a journal is opened, the commands already in it are replayed
+ * into the registry without writing any output, so a run can resume from the state the previous one ended with.
+ *
+ * The file starts with the magic bytes "BKJ1" and every record is laid out as:
+ *
+ *  - int: length of the command line in UTF-8 bytes
+ *  - byte: the command (one of the constants below)
+ *  - bytes: the command line in UTF-8
+ *  - int: CRC32 of the command byte and the command line
+ *
+ * Records are collected in memory and written with group commit: one write and one fsync make every record appended
+ * so far durable. A thread that needs its record on disk calls commit with the sequence number append gave it; if
+ * another thread is already syncing, it waits and is usually covered by the next sync together with the others that
+ * arrived in the meantime. Besides, a sync is started by append itself once groupSize records are waiting.
+ *
+ * A record that was only partly written when the process stopped fails its length or checksum; recovery stops there
+ * and truncates the file, so new records follow the last complete one.
+ */
+public class BookingJournal implements AutoCloseable {
+    public static final byte INIT_VOYAGE = 1;
+    public static final byte SELL_TICKET = 2;
+    public static final byte REFUND_TICKET = 3;
+    public static final byte CANCEL_VOYAGE = 4;
+
+    /**
+     * Default number of waiting records that starts a sync.
+     */
+    public static final int DEFAULT_GROUP_SIZE = 256;
+
+    private static final byte[] MAGIC = {'B', 'K', 'J', '1'};
+    /**
+     * Largest command line of a record in UTF-8 bytes. Recovery takes a longer length for a damaged record.
+     */
+    public static final int MAX_RECORD = 1 << 20;
+
+    private final FileChannel channel;
+    private final int groupSize;
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer spare = ByteBuffer.allocate(1 << 16);
+    private final CRC32 crc = new CRC32();
+    private long appended;
+    private long durable;
+    private boolean syncing;
+
+    private BookingJournal(FileChannel channel, int groupSize) {
+        this.channel = channel;
+        this.groupSize = groupSize;
+    }
+
+    /**
+     * Reads the group size from the "booking.journalGroupSize" system property, DEFAULT_GROUP_SIZE if it is not set.
+     *
+     * @return The configured group size.
+     */
+    public static int configuredGroupSize() {
+        return Integer.getInteger("booking.journalGroupSize", DEFAULT_GROUP_SIZE);
+    }
+
+    /**
+     * Opens the journal at the given path, creating it if it does not exist, and replays its records into the
+     * registry.
+     *
+     * @param path      Path of the journal file.
+     * @param groupSize The number of waiting records that starts a sync.
+     * @param buses     The registry the recorded commands are replayed into.
+     * @return The journal, positioned after its last complete record.
+     */
+    public static BookingJournal open(String path, int groupSize, Map<Integer, Bus> buses) {
+        return open(path, groupSize, buses, 0);
+    }
+
+    /**
+     * Opens the journal at the given path, creating it if it does not exist, and replays the records after the given
+     * position into the registry, e.g. the records that came after a snapshot.
+     *
+     * @param path      Path of the journal file.
+     * @param groupSize The number of waiting records that starts a sync.
+     * @param buses     The registry the recorded commands are replayed into.
+     * @param position  The position of the first record to replay (see getPosition), 0 for all of them.
+     * @return The journal, positioned after its last complete record.
+     */
+    public static BookingJournal open(String path, int groupSize, Map<Integer, Bus> buses, long position) {
+        try {
+            FileChannel channel = FileChannel.open(Paths.get(path),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            BookingJournal journal = new BookingJournal(channel, groupSize);
+            try {
+                journal.recover(buses, position);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            return journal;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Tells whether a command line fits in a record, so a command can be refused before it changes any state.
+     *
+     * @param line The command line.
+     * @return True if the line is at most MAX_RECORD bytes long in UTF-8.
+     */
+    public static boolean fits(String line) {
+        // A char takes at most 3 bytes in UTF-8, so short lines are not encoded
+        return line.length() <= MAX_RECORD / 3 || line.getBytes(StandardCharsets.UTF_8).length <= MAX_RECORD;
+    }
+
+    /**
+     * Adds a command to the journal. The record is durable once commit has been called with the returned sequence
+     * number, or once enough records have been appended after it.
+     *
+     * @param code The journal code of the command.
+     * @param line The command line.
+     * @return The sequence number of the record.
+     * @throws IllegalArgumentException If the line is longer than MAX_RECORD bytes, since recovery would stop at its
+     *                                  record and drop it together with every record after it.
+     */
+    public long append(byte code, String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_RECORD) {
+            throw new IllegalArgumentException("The command line is too long for a journal record!");
+        }
+        long sequence;
+        synchronized (this) {
+            int size = bytes.length + 9;
+            if (pending.remaining() < size) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+                pending.flip();
+                larger.put(pending);
+                pending = larger;
+            }
+            crc.reset();
+            crc.update(code);
+            crc.update(bytes, 0, bytes.length);
+            pending.putInt(bytes.length).put(code).put(bytes).putInt((int) crc.getValue());
+            sequence = ++appended;
+            if (syncing || appended - durable < groupSize) {
+                return sequence;
+            }
+        }
+        commit(sequence);
+        return sequence;
+    }
+
+    /**
+     * Waits until the record with the given sequence number and every record before it are on disk, syncing them
+     * together with all the other waiting records if no other thread is already doing so.
+     *
+     * @param sequence A sequence number returned by append.
+     */
+    public void commit(long sequence) {
+        ByteBuffer batch;
+        long target;
+        synchronized (this) {
+            boolean interrupted = false;
+            while (durable < sequence && syncing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (durable >= sequence) {
+                return;
+            }
+            // This thread syncs everything appended so far; later appends go to the other buffer meanwhile
+            syncing = true;
+            batch = pending;
+            target = appended;
+            pending = spare;
+        }
+        boolean written = false;
+        try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+            written = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            synchronized (this) {
+                batch.clear();
+                spare = batch;
+                if (written) {
+                    durable = target;
+                }
+                syncing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Makes every appended record durable.
+     */
+    public void commit() {
+        long sequence;
+        synchronized (this) {
+            sequence = appended;
+        }
+        commit(sequence);
+    }
+
+    /**
+     * Makes every appended record durable and returns the position after the last one, which a snapshot of the
+     * current state can store to skip the records it already includes.
+     *
+     * @return The position after the last record.
+     */
+    public long getPosition() {
+        commit();
+        synchronized (this) {
+            try {
+                return channel.position();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Makes every appended record durable and closes the file.
+     */
+    public void close() {
+        try {
+            commit();
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Replays the complete records of the file into the registry and truncates anything after them.
+     */
+    private void recover(Map<Integer, Bus> buses, long position) throws IOException {
+        long start = Math.max(position, MAGIC.length);
+        if (channel.size() == 0 && start == MAGIC.length) {
+            channel.write(ByteBuffer.wrap(MAGIC));
+            channel.force(true);
+            return;
+        }
+        ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+        while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) {
+            continue;
+        }
+        if (magic.hasRemaining() || !Arrays.equals(magic.array(), MAGIC)) {
+            throw new IllegalStateException("The file is not a booking journal!");
+        }
+        if (start > channel.size()) {
+            throw new IllegalStateException("The journal ends before the position of the snapshot!");
+        }
+        // Replayed commands only rebuild the state, their messages are not needed
+        PlayGround playGround = new PlayGround(OutputSink.discard());
+        String[] args = new String[0];
+        long end = start;
+        InputStream stream = new BufferedInputStream(Channels.newInputStream(channel.position(start)), 1 << 16);
+        DataInputStream input = new DataInputStream(stream);
+        byte[] bytes = new byte[256];
+        while (true) {
+            int length;
+            byte code;
+            int checksum;
+            try {
+                length = input.readInt();
+                if (length < 0 || length > MAX_RECORD) {
+                    break;
+                }
+                code = input.readByte();
+                if (bytes.length < length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                input.readFully(bytes, 0, length);
+                checksum = input.readInt();
+            } catch (EOFException e) { //The last record was not written completely
+                break;
+            }
+            crc.reset();
+            crc.update(code);
+            crc.update(bytes, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            playGround.executeCommand(args, new String(bytes, 0, length, StandardCharsets.UTF_8), false, buses);
+            end += length + 9;
+        }
+        if (end < channel.size()) {
+            channel.truncate(end);
+            channel.force(true);
+        }
+        channel.position(end);
+    }
+}
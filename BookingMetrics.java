@@ -0,0 +1,382 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class collects run-time metrics of the command processing: the number of commands and errors and a latency
+ * histogram per command type, the errors by the kind of their message, the seats sold and refunded and the bytes
+ * written to the output file. The metrics are written as a text report to a file, periodically while the run goes
+ * on and once more at its end.
+ *
+ * Recording a command costs two System.nanoTime calls and a few uncontended counter updates, so the metrics can be
+ * left on in production. The counters can be updated by several threads at once.
+ *
+ * The histograms are log-linear like HdrHistogram: values below 32 ns have a bucket each, and every power of two
+ * above is split into 16 buckets, so a bucket is never wider than 1/16 of its values (about 6%).
+ */
+public class BookingMetrics implements AutoCloseable {
+    public static final int INIT_VOYAGE = 0;
+    public static final int Z_REPORT = 1;
+    public static final int PRINT_VOYAGE = 2;
+    public static final int SELL_TICKET = 3;
+    public static final int SELL_BEST = 4;
+    public static final int REFUND_TICKET = 5;
+    public static final int CANCEL_VOYAGE = 6;
+    public static final int CANCEL_ROUTE = 7;
+    public static final int SEARCH_VOYAGES = 8;
+    public static final int HOLD_SEATS = 9;
+    public static final int CONFIRM_HOLD = 10;
+    public static final int RELEASE_HOLD = 11;
+    public static final int UNKNOWN = 12;
+
+    /**
+     * Default number of seconds between two periodic reports.
+     */
+    public static final int DEFAULT_INTERVAL = 10;
+
+    private static final String[] NAMES = {"INIT_VOYAGE", "Z_REPORT", "PRINT_VOYAGE", "SELL_TICKET", "SELL_BEST",
+            "REFUND_TICKET", "CANCEL_VOYAGE", "CANCEL_ROUTE", "SEARCH_VOYAGES", "HOLD_SEATS", "CONFIRM_HOLD", "RELEASE_HOLD", "UNKNOWN"};
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int HALF_BUCKETS = 1 << (SUB_BUCKET_BITS - 1);
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * HALF_BUCKETS;
+
+    private final long started = System.nanoTime();
+    private final LongAdder[] commands = new LongAdder[NAMES.length];
+    private final LongAdder[] failures = new LongAdder[NAMES.length];
+    private final LongAdder[] totalNanos = new LongAdder[NAMES.length];
+    private final LongAccumulator[] maxNanos = new LongAccumulator[NAMES.length];
+    private final AtomicLongArray histograms = new AtomicLongArray(NAMES.length * BUCKETS);
+    private final ConcurrentHashMap<String, ErrorKind> errors = new ConcurrentHashMap<>();
+    private final LongAdder seatsSold = new LongAdder();
+    private final LongAdder seatsRefunded = new LongAdder();
+    private final OutputSink output;
+    private ScheduledExecutorService dumps;
+
+    /**
+     * The errors of one kind, keyed by the kind itself.
+     */
+    private static final class ErrorKind {
+        private final String name;
+        private final LongAdder count = new LongAdder();
+
+        private ErrorKind(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Constructor for the BookingMetrics class.
+     *
+     * @param output The output sink whose bytes written are reported, null for none.
+     */
+    public BookingMetrics(OutputSink output) {
+        this.output = output;
+        for (int i = 0; i < NAMES.length; i++) {
+            commands[i] = new LongAdder();
+            failures[i] = new LongAdder();
+            totalNanos[i] = new LongAdder();
+            maxNanos[i] = new LongAccumulator(Math::max, 0);
+        }
+    }
+
+    /**
+     * Reads the number of seconds between two periodic reports from the "booking.metricsInterval" system property,
+     * DEFAULT_INTERVAL if it is not set. 0 turns the periodic reports off.
+     *
+     * @return The configured interval in seconds.
+     */
+    public static int configuredInterval() {
+        return Integer.getInteger("booking.metricsInterval", DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Records a processed command.
+     *
+     * @param type   The command type, one of the constants above.
+     * @param nanos  How long the command took.
+     * @param failed True if the command ended with an error.
+     */
+    public void record(int type, long nanos, boolean failed) {
+        commands[type].increment();
+        if (failed) {
+            failures[type].increment();
+        }
+        totalNanos[type].add(nanos);
+        maxNanos[type].accumulate(nanos);
+        histograms.incrementAndGet(type * BUCKETS + bucket(nanos));
+    }
+
+    /**
+     * Records an error message written for a command. Messages are counted by their kind, i.e. without the values
+     * the command gave, so "ERROR: -7 is not a positive integer, seat number must be a positive integer!" counts as
+     * "seat number must be a positive integer". Once there are MAX_KINDS kinds, the errors of new kinds are counted
+     * as OTHER_KIND, so values that are not recognized as such cannot grow the kinds without bound.
+     *
+     * @param message The error message.
+     */
+    public void error(String message) {
+        String name = errorKind(message);
+        ErrorKind kind = errors.get(name);
+        if (kind == null) {
+            String key = errors.size() < MAX_KINDS ? name : OTHER_KIND;
+            kind = errors.computeIfAbsent(key, ErrorKind::new);
+        }
+        kind.count.increment();
+    }
+
+    /**
+     * @param seats The number of seats sold by a command.
+     */
+    public void seatsSold(int seats) {
+        seatsSold.add(seats);
+    }
+
+    /**
+     * @param seats The number of seats refunded by a command.
+     */
+    public void seatsRefunded(int seats) {
+        seatsRefunded.add(seats);
+    }
+
+    /**
+     * Starts writing the report to the given file every interval seconds, on a daemon thread.
+     *
+     * @param path     Path of the report file.
+     * @param interval Seconds between two reports, 0 or less for none.
+     */
+    public synchronized void startDumps(final String path, int interval) {
+        if (interval <= 0 || dumps != null) {
+            return;
+        }
+        dumps = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "booking-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumps.scheduleAtFixedRate(() -> {
+            try {
+                writeReport(path, false);
+            } catch (UncheckedIOException e) {
+                e.printStackTrace();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes the report to a file, replacing its previous content at once.
+     *
+     * @param path  Path of the report file.
+     * @param last  True for the report at the end of the run.
+     */
+    public synchronized void writeReport(String path, boolean last) {
+        try {
+            java.nio.file.Path target = Paths.get(path);
+            java.nio.file.Path temporary = Paths.get(path + ".tmp");
+            Files.write(temporary, report(last).getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stops the periodic reports.
+     */
+    public synchronized void close() {
+        if (dumps != null) {
+            dumps.shutdownNow();
+            dumps = null;
+        }
+    }
+
+    /**
+     * @param last True for the report at the end of the run.
+     * @return The report as text.
+     */
+    public String report(boolean last) {
+        double seconds = Math.max(System.nanoTime() - started, 1) / 1e9;
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.US, "Booking metrics %s after %.3f s%n", last ? "at the end of the run" : "so far", seconds));
+        text.append(String.format(Locale.US, "%n%-15s %10s %8s %10s", "command", "count", "errors", "mean(us)"));
+        for (double percentile : PERCENTILES) {
+            text.append(String.format(Locale.US, " %10s", "p" + format(percentile) + "(us)"));
+        }
+        text.append(String.format(Locale.US, " %10s%n", "max(us)"));
+        long total = 0;
+        for (int type = 0; type < NAMES.length; type++) {
+            long count = commands[type].sum();
+            if (count == 0) {
+                continue;
+            }
+            total += count;
+            text.append(String.format(Locale.US, "%-15s %10d %8d %10.1f", NAMES[type], count, failures[type].sum(),
+                    totalNanos[type].sum() / 1e3 / count));
+            long[] histogram = new long[BUCKETS];
+            long recorded = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                histogram[b] = histograms.get(type * BUCKETS + b);
+                recorded += histogram[b];
+            }
+            for (double percentile : PERCENTILES) {
+                // A bucket ends above the largest value recorded in it, never report more than the maximum
+                long value = Math.min(percentile(histogram, recorded, percentile), maxNanos[type].get());
+                text.append(String.format(Locale.US, " %10.1f", value / 1e3));
+            }
+            text.append(String.format(Locale.US, " %10.1f%n", maxNanos[type].get() / 1e3));
+        }
+        text.append(String.format(Locale.US, "%-15s %10d (%.0f/s)%n", "all", total, total / seconds));
+
+        text.append(String.format(Locale.US, "%nerrors by kind:%n"));
+        List<ErrorKind> kinds = new ArrayList<>(errors.values());
+        kinds.sort((a, b) -> Long.compare(b.count.sum(), a.count.sum()));
+        for (ErrorKind kind : kinds) {
+            text.append(String.format(Locale.US, "%10d  %s%n", kind.count.sum(), kind.name));
+        }
+
+        long sold = seatsSold.sum();
+        long refunded = seatsRefunded.sum();
+        text.append(String.format(Locale.US, "%nseats sold:     %12d (%.0f/s)%n", sold, sold / seconds));
+        text.append(String.format(Locale.US, "seats refunded: %12d (%.0f/s)%n", refunded, refunded / seconds));
+        if (output != null) {
+            long bytes = output.getBytesWritten();
+            text.append(String.format(Locale.US, "bytes written:  %12d (%.0f/s)%n", bytes, bytes / seconds));
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return The index of the histogram bucket of a value.
+     */
+    static int bucket(long value) {
+        if (value < 2 * HALF_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return The largest value that falls into a histogram bucket.
+     */
+    static long highestValue(int bucket) {
+        if (bucket < 2 * HALF_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / HALF_BUCKETS - 1;
+        long sub = bucket % HALF_BUCKETS + HALF_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    private static long percentile(long[] histogram, long recorded, double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(recorded * percentile / 100));
+        long seen = 0;
+        for (int b = 0; b < histogram.length; b++) {
+            seen += histogram[b];
+            if (seen >= rank) {
+                return highestValue(b);
+            }
+        }
+        return 0;
+    }
+
+    private static String format(double percentile) {
+        return percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile);
+    }
+
+    private static final String ERROR = "ERROR: ";
+    private static final String[] NAMED = {"There is no command namely", "There is no voyage from", "does not go from"};
+    private static final String[] NAMED_KINDS = {"There is no command namely #", "There is no voyage from # to #",
+            "Voyage # does not go from # to #"};
+
+    /**
+     * The largest number of error kinds that are counted apart.
+     */
+    private static final int MAX_KINDS = 256;
+
+    /**
+     * The kind the errors of further kinds are counted as.
+     */
+    private static final String OTHER_KIND = "other";
+
+    /**
+     * Removes the values of a command from an error message: the value a validation message starts with (everything
+     * up to the last ", " that starts a new clause), words with digits such as IDs, and the names of unknown commands
+     * and cities, which are recognized by the messages that contain them.
+     */
+    private static String errorKind(String message) {
+        int from = start(message);
+        int end = end(message, from);
+        for (int i = 0; i < NAMED.length; i++) {
+            if (message.indexOf(NAMED[i], from) >= 0) {
+                return NAMED_KINDS[i];
+            }
+        }
+        StringBuilder kind = new StringBuilder(end - from);
+        int word = 0;
+        boolean digit = false;
+        char last = 0;
+        for (int i = from; i < end; i++) {
+            char c = message.charAt(i);
+            if (c == ' ') {
+                if (digit) {
+                    kind.setLength(word);
+                    kind.append('#');
+                }
+                if (last == ',' && clause(message, i + 1, end)) {
+                    kind.setLength(0);
+                } else {
+                    kind.append(' ');
+                }
+                word = kind.length();
+                digit = false;
+            } else {
+                kind.append(c);
+                digit |= c >= '0' && c <= '9';
+            }
+            last = c;
+        }
+        if (digit) {
+            kind.setLength(word);
+            kind.append('#');
+        }
+        return kind.toString();
+    }
+
+    /**
+     * @return True if a clause starts at the given index, i.e. a word and not a value such as the 100 of "[0, 100]".
+     */
+    private static boolean clause(String message, int index, int end) {
+        return index < end && Character.isLetter(message.charAt(index));
+    }
+
+    private static int start(String message) {
+        int from = message.startsWith(ERROR) ? ERROR.length() : 0;
+        while (from < message.length() && message.charAt(from) == ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private static int end(String message, int from) {
+        int end = message.length();
+        while (end > from && message.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end > from && message.charAt(end - 1) == '!' ? end - 1 : end;
+    }
+}
@@ -0,0 +1,222 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * This class is a long-running booking service on a local TCP socket. Clients send the commands of the input files,
+ * one per line in UTF-8, and every connection is a sales channel of one shared BookingEngine, so all clients work on
+ * the same voyages.
+ *
+ * The response to a command is exactly what it writes to the output file, starting with its "COMMAND:" line, and is
+ * ended by an empty line. Empty command lines are ignored and get no response. A connection may send several commands
+ * without waiting for their responses. The commands that are already waiting are run as one batch of up to
+ * "booking.serverBatch" commands (64 by default, see BookingEngine.Channel.executeBatch), and their responses are
+ * sent together.
+ * A command that fails with an exception is answered with an error line and the connection stays open.
+ *
+ * Every connection is served by a thread of its own, a virtual thread on JDK 21 and later (see VirtualThreads), so a
+ * connection simply blocks while it waits for its next command.
+ */
+public class BookingServer implements AutoCloseable {
+    /**
+     * Port the server listens on if none is given.
+     */
+    public static final int DEFAULT_PORT = 7070;
+
+    /**
+     * Default largest number of waiting commands of a connection that run as one batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private static final int BACKLOG = 1024;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final BookingEngine engine;
+    private final ServerSocket server;
+    private final int batchSize = Math.max(1, Integer.getInteger("booking.serverBatch", DEFAULT_BATCH_SIZE));
+    private final ExecutorService connections = VirtualThreads.newThreadPerTaskExecutor("booking-connection");
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+    private Thread acceptor;
+
+    /**
+     * Constructor for the BookingServer class. Binds the port on the loopback address; connections are accepted once
+     * the server is started. The seat holds of the engine are put on the system clock, so its channels must be
+     * opened after this.
+     *
+     * @param engine The engine the commands of every connection run on.
+     * @param port   The port to listen on, 0 for any free port.
+     */
+    public BookingServer(BookingEngine engine, int port) {
+        this.engine = engine;
+        engine.setHolds(SeatHolds.onSystemClock());
+        try {
+            this.server = new ServerSocket(port, BACKLOG, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Starts accepting connections on a thread of its own.
+     */
+    public synchronized void start() {
+        if (acceptor == null) {
+            acceptor = new Thread(this::accept, "booking-server");
+            acceptor.start();
+        }
+    }
+
+    /**
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Waits until the server is closed.
+     *
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    public void join() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = acceptor;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones. The engine is left open for its owner to close.
+     */
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+        connections.shutdownNow();
+    }
+
+    private void accept() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+            sockets.add(socket);
+            if (closed) { //The server was closed while this connection was accepted
+                closeQuietly(socket);
+            } else {
+                connections.execute(() -> serve(socket));
+            }
+        }
+    }
+
+    /**
+     * Runs the commands of one connection until the client closes it.
+     */
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), BUFFER_SIZE);
+            OutputSink output = new OutputSink(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), BUFFER_SIZE),
+                    OutputSink.FlushPolicy.ON_FULL);
+            BookingEngine.Channel channel = engine.openChannel(output);
+            List<String> batch = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim(); //Same as the input files, commands are trimmed and empty lines skipped
+                if (!line.isEmpty()) {
+                    batch.add(line);
+                }
+                // Pipelined commands are collected until no more are waiting, then answered together
+                if (batch.isEmpty() || (batch.size() < batchSize && in.ready())) {
+                    continue;
+                }
+                if (batch.size() == 1) {
+                    channel.execute(batch.get(0));
+                    output.write("", true);
+                } else {
+                    channel.executeBatch(batch, "\n");
+                }
+                batch.clear();
+                output.flush();
+            }
+        } catch (IOException e) {
+            if (!closed) { //Closing the server closes the sockets under the connections
+                e.printStackTrace();
+            }
+        } finally {
+            sockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) { //Nothing is left to send on a socket that failed to close
+        }
+    }
+
+    /**
+     * Runs the server until the process is stopped. The journal and metrics system properties of BookingSystem are
+     * honored; the journal is synced and the final metrics report written when the process shuts down.
+     *
+     * @param args Optionally the port to listen on, DEFAULT_PORT if it is not given.
+     * @throws InterruptedException If the main thread is interrupted while the server runs.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+
+        String journalPath = System.getProperty("booking.journal");
+        BookingEngine engine = journalPath == null ? new BookingEngine()
+                : new BookingEngine(journalPath, BookingJournal.configuredGroupSize());
+
+        String metricsPath = System.getProperty("booking.metrics");
+        BookingMetrics metrics = metricsPath == null ? null : new BookingMetrics(null);
+        if (metrics != null) {
+            engine.setMetrics(metrics);
+            metrics.startDumps(metricsPath, BookingMetrics.configuredInterval());
+        }
+
+        BookingServer server = new BookingServer(engine, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            engine.close();
+            if (metrics != null) {
+                metrics.close();
+                metrics.writeReport(metricsPath, true);
+            }
+        }, "booking-server-shutdown"));
+        server.start();
+        System.out.println("Booking server listening on port " + server.getPort()
+                + (VirtualThreads.available() ? " with virtual threads" : " with platform threads"));
+        server.join();
+    }
+}
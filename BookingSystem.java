@@ -1,4 +1,5 @@
-import java.util.HashMap;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 /**
  * This class is the main entry point for the program. It reads bus data from an input file, processes
@@ -15,17 +16,67 @@ public class BookingSystem {
      *             and the second argument specifies the output file path (if used).
      */
     public static void main(String[] args) {
-        // Read bus data from the input file
-        String[] items = FileInput.readFile(args[0], true, true);  // Assuming FileInput class handles file reading
+        // Open the input file as a stream, commands are read one at a time while they are processed
+        CommandReader commands = CommandReader.open(args[0], true, true);
 
-        // Clear the output file
-        FileOutput.writeToFile(args[1], "", false, false);  // Assuming FileOutput class handles file writing
+        // Open the output file once for the whole run, clearing its previous content
+        OutputSink output = new OutputSink(args[1], false, OutputSink.configuredFlushPolicy());
 
-        // Create a HashMap to store buses keyed by their ID
-        HashMap<Integer, Bus> buses = new HashMap<>();
+        // Create a registry to store buses keyed by their ID, iterated in ascending order of the IDs. If a snapshot
+        // of a previous run is configured, the registry starts from it and decodes its voyages as they are used
+        String snapshotPath = System.getProperty("booking.snapshot");
+        VoyageSnapshot snapshot = snapshotPath != null && Files.exists(Paths.get(snapshotPath))
+                ? VoyageSnapshot.open(snapshotPath) : null;
+        VoyageRegistry buses = snapshot == null ? new VoyageRegistry() : new VoyageRegistry(snapshot);
 
-        // Create a PlayGround object to process the bus data
-        PlayGround playGround = new PlayGround();
-        playGround.readProcessData(args, items, buses);
+        // Recover the voyages of the previous runs from the journal, if one is configured, skipping the records
+        // the snapshot already includes
+        String journalPath = System.getProperty("booking.journal");
+        BookingJournal journal = journalPath == null ? null : BookingJournal.open(journalPath,
+                BookingJournal.configuredGroupSize(), buses, snapshot == null ? 0 : snapshot.getJournalPosition());
+
+        // Collect metrics of the run, if a report file is configured; the report is rewritten periodically and once
+        // more at the end of the run
+        String metricsPath = System.getProperty("booking.metrics");
+        BookingMetrics metrics = metricsPath == null ? null : new BookingMetrics(output);
+        if (metrics != null) {
+            metrics.startDumps(metricsPath, BookingMetrics.configuredInterval());
+        }
+
+        try {
+            int parallelism = ParallelBatchProcessor.configuredParallelism();
+            if (parallelism > 1) {
+                // Process the commands of different voyages on several threads, with the same output
+                ParallelBatchProcessor processor = new ParallelBatchProcessor(output, parallelism);
+                processor.setJournal(journal);
+                processor.setMetrics(metrics);
+                processor.readProcessData(args, commands, buses);
+            } else {
+                // Create a PlayGround object to process the bus data
+                PlayGround playGround = new PlayGround(output);
+                playGround.setJournal(journal);
+                playGround.setMetrics(metrics);
+                playGround.readProcessData(args, commands, buses);
+            }
+            if (snapshotPath != null) {
+                // Save the final state for the next run, together with the journal position it covers
+                VoyageSnapshot.write(snapshotPath, buses, journal == null ? 0 : journal.getPosition());
+            }
+        } finally {
+            if (snapshot != null) {
+                snapshot.close();
+            }
+            if (journal != null) {
+                journal.close();
+            }
+            output.close();
+            if (metrics != null) {
+                metrics.close();
+                metrics.writeReport(metricsPath, true);
+            }
+            if (commands != null) {
+                commands.close();
+            }
+        }
     }
 }
\ No newline at end of file
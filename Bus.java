@@ -1,27 +1,70 @@
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
 /**
  * This abstract class represents a Bus in the system. It provides the common properties and functionalities
  * shared by all concrete Bus types (Minibus, Standard, Premium). Each Bus object has a unique ID, origin,
  * destination, number of rows, base price, current revenue, refund cut percentage, premium seat fee (applicable
- * to Premium buses only), and a boolean array representing the seat availability (true for occupied, false for vacant).
+ * to Premium buses only), and a SeatMap representing the seat availability (a set bit for occupied, a clear bit for vacant).
  *
  * Subclasses of Bus (Minibus, Standard, Premium) are responsible for implementing the abstract methods:
- *  - increaseRevenue(amount): Updates the bus revenue by adding the specified amount.
- *  - decreaseRevenue(amount): Updates the bus revenue by subtracting the specified amount.
- *  - initializeSeats(seats, capacity): Initializes the seat availability array based on the bus capacity.
- *  - writeBusPlan(args): Writes the bus seating plan details to the output file (implementation varies for each Bus type).
+ *  - initializeSeats(seats, capacity): Initializes the seat availability map based on the bus capacity.
+ *  - writeBusPlan(output): Writes the bus seating plan details to the output file (implementation varies for each Bus type).
+ *
+ * The departure and arrival cities are stored as codes of the shared CityDictionary, so voyages on the same route
+ * share the city names and routes can be compared by their codes.
+ *
+ * A Bus object is also the lock of its voyage: sales, refunds and cancellation hold it while they read and change
+ * the seats, and the revenue methods are synchronized on it, so several channels can share one registry.
+ *
+ * A voyage may stop at intermediate cities on its way, e.g. Ankara-Bolu-İstanbul. The route is then cut into
+ * segments between two consecutive stops, and every segment has a SeatMap of its own, so a seat sold from Ankara to
+ * Bolu can be sold again from Bolu to İstanbul. Checking a seat group for a range of segments is a mask test per
+ * segment, with no search over the tickets of a seat. The seats SeatMap is then the union of the segments: a seat is
+ * shown as sold, and cannot be sold for the whole route, while it is sold on any segment. A ticket for some of the
+ * segments costs the share of the price of the route that falls on them (see segmentMicros). A voyage without
+ * intermediate stops has no segment maps and works on the seats SeatMap alone.
+ *
+ * Seats on hold (HOLD_SEATS) are kept in a second SeatMap, created by the first hold of the voyage. A held seat is
+ * neither sold nor free: it has no revenue and cannot be refunded, but it cannot be sold or held by anybody else.
+ *
+ * Money is kept in fixed-point integer micros, millionths of a lira. A price has at most two decimals and the premium
+ * fee and refund cut are whole percentages, so the price of a regular and of a premium seat and the refund for each
+ * are exact in micros. They are computed once, when the bus is built or its price, refund cut or premium fee change,
+ * so a sale, refund or cancellation only multiplies these amounts by the number of seats of each class, and the
+ * revenue is the exact sum of the sales and refunds. Amounts are rounded to cents only when they are written.
+ *
+ * The block a Z report writes for a voyage is cached and only rendered again after the voyage has changed, so a
+ * report costs one write per voyage plus the rendering of the voyages changed since the previous one.
  *
  */
 abstract class Bus {
+    /**
+     * The number of micros in a lira.
+     */
+    public static final long MICROS_PER_LIRA = 1000000;
+
     private int ID;
-    private String from;
-    private String to;
+    private int from;
+    private int to;
+    private int[] stops;
+    private SeatMap[] segmentSeats;
     private int rows;
     private double price;
-    private double revenue = 0;
+    private long revenue;
+    private long regularMicros;
+    private long premiumMicros;
+    private long regularRefundMicros;
+    private long premiumRefundMicros;
     protected int capacity;
     private int refundCut;
     private int premiumFee;
-    protected boolean[] seats;
+    protected SeatMap seats;
+    private SeatMap heldSeats;
+    private String renderedVoyage;
+    private long renderedSeats;
+    private long renderedRevenue;
 
     /**
      * Constructor for the Bus class. Initializes the object's properties.
@@ -37,44 +80,223 @@ abstract class Bus {
      */
     public Bus(int ID, String from, String to, int rows, double price, double revenue, int refundCut, int premiumFee) {
         this.ID = ID;
-        this.from = from;
-        this.to = to;
+        this.from = CityDictionary.SHARED.encode(from);
+        this.to = CityDictionary.SHARED.encode(to);
         this.rows = rows;
         this.price = price;
-        this.revenue = revenue;
+        this.revenue = toMicros(revenue);
         this.refundCut = refundCut;
         this.premiumFee = premiumFee;
+        updatePrices();
     }
 
     /**
-     * Abstract method to be implemented by subclasses. Updates the bus revenue by adding the specified amount.
+     * Abstract method to be implemented by subclasses. Initializes the seat availability map based on the bus capacity.
      *
-     * @param amount The amount to be added to the bus revenue.
+     * @param seats The SeatMap to be used for seat availability (a set bit for occupied, a clear bit for vacant).
+     * @param capacity The total number of seats in the bus.
      */
-    abstract void increaseRevenue(double amount);
+    abstract void initializeSeats(SeatMap seats, int capacity);
 
     /**
-     * Abstract method to be implemented by subclasses. Updates the bus revenue by subtracting the specified amount.
+     * Abstract method to be implemented by subclasses. Writes the bus seating plan details to the output file
+     * (implementation varies for each Bus type).
      *
-     * @param amount The amount to be subtracted from the bus revenue.
+     * @param output The output sink the seating plan is written to.
      */
-    abstract void decreaseRevenue(double amount);
+    abstract void writeBusPlan(OutputSink output);
 
     /**
-     * Abstract method to be implemented by subclasses. Initializes the seat availability array based on the bus capacity.
+     * Counts the premium seats of a seat group. Only a Premium bus has premium seats.
      *
-     * @param seats The boolean array to be used for seat availability (true for occupied, false for vacant).
-     * @param capacity The total number of seats in the bus.
+     * @param group A seat group of the capacity of the bus.
+     * @return The number of premium seats in the group.
      */
-    abstract void initializeSeats(boolean[] seats, int capacity);
+    public int premiumSeats(SeatMap group) {
+        return 0;
+    }
 
     /**
-     * Abstract method to be implemented by subclasses. Writes the bus seating plan details to the output file
-     * (implementation varies for each Bus type).
+     * @param regular The number of regular seats.
+     * @param premium The number of premium seats.
+     * @return The price of the seats in micros.
+     */
+    public long saleMicros(int regular, int premium) {
+        return regular * regularMicros + premium * premiumMicros;
+    }
+
+    /**
+     * @param regular The number of regular seats.
+     * @param premium The number of premium seats.
+     * @return The refund for the seats in micros, after the refund cut.
+     */
+    public long refundMicros(int regular, int premium) {
+        return regular * regularRefundMicros + premium * premiumRefundMicros;
+    }
+
+    /**
+     * @param regular The number of regular seats.
+     * @param premium The number of premium seats.
+     * @param first   The first segment of the tickets.
+     * @param last    The segment after the last one of the tickets.
+     * @return The price of the seats for the given segments in micros.
+     */
+    public long saleMicros(int regular, int premium, int first, int last) {
+        return regular * segmentMicros(regularMicros, first, last) + premium * segmentMicros(premiumMicros, first, last);
+    }
+
+    /**
+     * @param regular The number of regular seats.
+     * @param premium The number of premium seats.
+     * @param first   The first segment of the tickets.
+     * @param last    The segment after the last one of the tickets.
+     * @return The refund for the seats for the given segments in micros, after the refund cut.
+     */
+    public long refundMicros(int regular, int premium, int first, int last) {
+        return regular * segmentMicros(regularRefundMicros, first, last) + premium * segmentMicros(premiumRefundMicros, first, last);
+    }
+
+    /**
+     * @return The price of every ticket that is sold, i.e. what a cancellation pays back, in micros.
+     */
+    public long soldMicros() {
+        if (segmentSeats == null) {
+            int premium = premiumSeats(seats);
+            return saleMicros(seats.occupiedCount() - premium, premium);
+        }
+        long amount = 0;
+        for (int s = 0; s < segmentSeats.length; s++) {
+            int premium = premiumSeats(segmentSeats[s]);
+            amount += saleMicros(segmentSeats[s].occupiedCount() - premium, premium, s, s + 1);
+        }
+        return amount;
+    }
+
+    /**
+     * Returns the share of an amount that falls on a range of segments. The share of the first k segments is
+     * rounded half up to a whole micro, and the share of a range is the difference of two of those, so the shares of
+     * consecutive ranges add up to exactly the share of the whole range, and all the segments to the full amount.
+     *
+     * @param amount The amount for the whole route in micros.
+     * @param first The first segment.
+     * @param last  The segment after the last one.
+     * @return The share in micros.
+     */
+    private long segmentMicros(long amount, int first, int last) {
+        if (segmentSeats == null) {
+            return amount;
+        }
+        int segments = segmentSeats.length;
+        return (2 * amount * last + segments) / (2 * segments) - (2 * amount * first + segments) / (2 * segments);
+    }
+
+    /**
+     * @param group A seat group of the capacity of the bus.
+     * @param first The first segment.
+     * @param last  The segment after the last one.
+     * @return True if at least one seat of the group is sold on at least one of the segments.
+     */
+    public boolean isSold(SeatMap group, int first, int last) {
+        if (segmentSeats == null) {
+            return seats.intersects(group);
+        }
+        for (int s = first; s < last; s++) {
+            if (segmentSeats[s].intersects(group)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param group A seat group of the capacity of the bus.
+     * @param first The first segment.
+     * @param last  The segment after the last one.
+     * @return True if every seat of the group is sold on every one of the segments.
+     */
+    public boolean isSoldAll(SeatMap group, int first, int last) {
+        if (segmentSeats == null) {
+            return seats.containsAll(group);
+        }
+        for (int s = first; s < last; s++) {
+            if (!segmentSeats[s].containsAll(group)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marks a seat group as sold on a range of segments. The caller has checked that the seats are free there.
+     *
+     * @param group A seat group of the capacity of the bus.
+     * @param first The first segment.
+     * @param last  The segment after the last one.
+     */
+    public void sell(SeatMap group, int first, int last) {
+        if (segmentSeats != null) {
+            for (int s = first; s < last; s++) {
+                segmentSeats[s].occupyAll(group);
+            }
+        }
+        seats.occupyAll(group);
+    }
+
+    /**
+     * Marks a seat group as free on a range of segments. The caller has checked that the seats are sold there.
      *
-     * @param args The command line arguments passed to the program (may or may not be used in this method).
+     * @param group A seat group of the capacity of the bus.
+     * @param first The first segment.
+     * @param last  The segment after the last one.
      */
-    abstract void writeBusPlan(String[] args);
+    public void refund(SeatMap group, int first, int last) {
+        if (segmentSeats == null) {
+            seats.releaseAll(group);
+            return;
+        }
+        for (int s = first; s < last; s++) {
+            segmentSeats[s].releaseAll(group);
+        }
+        // A seat stays sold while any other segment still has it
+        for (int w = 0; w < seats.wordCount(); w++) {
+            long sold = 0;
+            for (SeatMap segment : segmentSeats) {
+                sold |= segment.getWord(w);
+            }
+            seats.setWord(w, sold);
+        }
+    }
+
+    /**
+     * Adds an amount to the revenue.
+     *
+     * @param amount The amount in micros, negative for refunds.
+     */
+    public synchronized void addRevenueMicros(long amount) {
+        revenue += amount;
+    }
+
+    /**
+     * Returns the ID, route, seat plan and revenue of the voyage as written by PRINT_VOYAGE and Z_REPORT. The
+     * rendering is reused until the seats, the revenue or the route change.
+     *
+     * @return The rendered voyage, ending with a line break.
+     */
+    public synchronized String renderVoyage() {
+        if (renderedVoyage == null || renderedSeats != seats.getVersion()
+                || renderedRevenue != revenue) {
+            StringWriter text = new StringWriter();
+            OutputSink output = new OutputSink(text, OutputSink.FlushPolicy.ON_FULL);
+            output.write("Voyage " + ID, true);
+            output.write(getRoute(), true);
+            writeBusPlan(output);
+            output.write("Revenue: " + formatMicros(revenue), true);
+            renderedVoyage = text.toString();
+            renderedSeats = seats.getVersion();
+            renderedRevenue = revenue;
+        }
+        return renderedVoyage;
+    }
 
     // Getters and Setters for all Bus properties
     public int getCapacity() {
@@ -83,6 +305,7 @@ abstract class Bus {
 
     public void setCapacity(int capacity) {
         this.capacity = capacity;
+        renderedVoyage = null;
     }
 
     public int getRefundCut() {
@@ -91,6 +314,7 @@ abstract class Bus {
 
     public void setRefundCut(int refundCut) {
         this.refundCut = refundCut;
+        updatePrices();
     }
 
     public int getPremiumFee() {
@@ -99,46 +323,210 @@ abstract class Bus {
 
     public void setPremiumFee(int premiumFee) {
         this.premiumFee = premiumFee;
+        updatePrices();
     }
 
-    public boolean[] getSeats() {
+    public SeatMap getSeats() {
         return seats;
     }
 
-    public void setSeats(boolean[] seats) {
+    /**
+     * @return The seats on hold, null if the voyage never had a hold.
+     */
+    public SeatMap getHeldSeats() {
+        return heldSeats;
+    }
+
+    /**
+     * @return The seats on hold, created empty by the first call.
+     */
+    public SeatMap holdSeats() {
+        if (heldSeats == null) {
+            heldSeats = new SeatMap(capacity);
+        }
+        return heldSeats;
+    }
+
+    /**
+     * @return The number of seats that are neither sold nor on hold.
+     */
+    public int freeSeats() {
+        return capacity - seats.occupiedCount() - (heldSeats == null ? 0 : heldSeats.occupiedCount());
+    }
+
+    public void setSeats(SeatMap seats) {
         this.seats = seats;
+        renderedVoyage = null;
+    }
+
+    public synchronized double getRevenue() {
+        return (double) revenue / MICROS_PER_LIRA;
+    }
+
+    public synchronized void setRevenue(double revenue) {
+        this.revenue = toMicros(revenue);
     }
 
-    public double getRevenue() {
+    public synchronized long getRevenueMicros() {
         return revenue;
     }
 
-    public void setRevenue(double revenue) {
+    public synchronized void setRevenueMicros(long revenue) {
         this.revenue = revenue;
     }
 
+    /**
+     * @return The price of a regular seat in micros.
+     */
+    public long getRegularMicros() {
+        return regularMicros;
+    }
+
+    /**
+     * @return The price of a premium seat in micros, the regular price plus the premium fee.
+     */
+    public long getPremiumMicros() {
+        return premiumMicros;
+    }
+
     public int getID() {
         return ID;
     }
 
     public void setID(int ID) {
         this.ID = ID;
+        renderedVoyage = null;
     }
 
     public String getFrom() {
-        return from;
+        return CityDictionary.SHARED.name(from);
     }
 
     public void setFrom(String from) {
-        this.from = from;
+        this.from = CityDictionary.SHARED.encode(from);
+        renderedVoyage = null;
     }
 
     public String getTo() {
-        return to;
+        return CityDictionary.SHARED.name(to);
     }
 
     public void setTo(String to) {
-        this.to = to;
+        this.to = CityDictionary.SHARED.encode(to);
+        renderedVoyage = null;
+    }
+
+    /**
+     * Sets every stop of the route, from the departure to the arrival. A route of more than two stops gets empty
+     * segment seat maps, so the stops must be set before any seat is sold.
+     *
+     * @param stops The names of the stops in order, at least two.
+     */
+    public void setStops(String[] stops) {
+        this.from = CityDictionary.SHARED.encode(stops[0]);
+        this.to = CityDictionary.SHARED.encode(stops[stops.length - 1]);
+        if (stops.length == 2) {
+            this.stops = null;
+            this.segmentSeats = null;
+        } else {
+            this.stops = new int[stops.length];
+            this.segmentSeats = new SeatMap[stops.length - 1];
+            for (int i = 0; i < stops.length; i++) {
+                this.stops[i] = CityDictionary.SHARED.encode(stops[i]);
+            }
+            for (int s = 0; s < segmentSeats.length; s++) {
+                segmentSeats[s] = new SeatMap(capacity);
+            }
+        }
+        renderedVoyage = null;
+    }
+
+    /**
+     * @return The number of stops, 2 for a voyage without intermediate stops.
+     */
+    public int getStopCount() {
+        return stops == null ? 2 : stops.length;
+    }
+
+    /**
+     * @param i The index of a stop, 0 for the departure.
+     * @return The name of the stop.
+     */
+    public String getStop(int i) {
+        if (stops == null) {
+            return i == 0 ? getFrom() : getTo();
+        }
+        return CityDictionary.SHARED.name(stops[i]);
+    }
+
+    /**
+     * Finds a stop by its name.
+     *
+     * @param name The name of the city.
+     * @param from The index of the first stop to look at.
+     * @return The index of the first stop at or after from with that name, or -1 if there is none.
+     */
+    public int findStop(String name, int from) {
+        int code = CityDictionary.SHARED.find(name);
+        for (int i = from; code >= 0 && i < getStopCount(); i++) {
+            if ((stops == null ? (i == 0 ? this.from : this.to) : stops[i]) == code) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The number of segments between two consecutive stops, 1 for a voyage without intermediate stops.
+     */
+    public int getSegmentCount() {
+        return getStopCount() - 1;
+    }
+
+    /**
+     * @return The stops of the route joined with dashes, e.g. "Ankara-Bolu-İstanbul".
+     */
+    public String getRoute() {
+        if (stops == null) {
+            return getFrom() + "-" + getTo();
+        }
+        StringBuilder route = new StringBuilder();
+        for (int i = 0; i < stops.length; i++) {
+            if (i > 0) {
+                route.append('-');
+            }
+            route.append(CityDictionary.SHARED.name(stops[i]));
+        }
+        return route.toString();
+    }
+
+    /**
+     * @param s The index of a segment.
+     * @return The seats sold on the segment.
+     */
+    public SeatMap getSegmentSeats(int s) {
+        return segmentSeats == null ? seats : segmentSeats[s];
+    }
+
+    /**
+     * @return The CityDictionary code of the departure city.
+     */
+    public int getFromCode() {
+        return from;
+    }
+
+    /**
+     * @return The CityDictionary code of the arrival city.
+     */
+    public int getToCode() {
+        return to;
+    }
+
+    /**
+     * @return A key that is equal for all the voyages on the same route (see CityDictionary.routeKey).
+     */
+    public long getRouteKey() {
+        return CityDictionary.routeKey(from, to);
     }
 
     public int getRows() {
@@ -155,5 +543,48 @@ abstract class Bus {
 
     public void setPrice(double price) {
         this.price = price;
+        updatePrices();
+    }
+
+    /**
+     * Converts an amount to micros, rounding half up at the sixth decimal.
+     *
+     * @param amount The amount.
+     * @return The amount in micros.
+     */
+    public static long toMicros(double amount) {
+        return BigDecimal.valueOf(amount).setScale(6, RoundingMode.HALF_UP).unscaledValue().longValue();
+    }
+
+    /**
+     * Formats an amount in micros rounded half up to two decimals like the "%.2f" format does, e.g. 123454321 as
+     * "123.45".
+     *
+     * @param micros The amount in micros.
+     * @return The formatted amount.
+     */
+    public static String formatMicros(long micros) {
+        long cents = (Math.abs(micros) + MICROS_PER_LIRA / 200) / (MICROS_PER_LIRA / 100);
+        long whole = cents / 100;
+        int fraction = (int) (cents % 100);
+        return (micros < 0 && cents != 0 ? "-" : "") + whole + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+
+    /**
+     * Recomputes the seat prices and refunds in micros from the price, premium fee and refund cut.
+     */
+    private void updatePrices() {
+        regularMicros = toMicros(price);
+        premiumMicros = percentOf(regularMicros, 100 + premiumFee);
+        regularRefundMicros = percentOf(regularMicros, 100 - refundCut);
+        premiumRefundMicros = percentOf(premiumMicros, 100 - refundCut);
+    }
+
+    /**
+     * @return The given percentage of an amount in micros, rounded half up to a whole micro.
+     */
+    private static long percentOf(long micros, long percent) {
+        long product = micros * percent;
+        return product >= 0 ? (product + 50) / 100 : -((-product + 50) / 100);
     }
 }
@@ -0,0 +1,86 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class maps city names to small integer codes, so a Bus can store the endpoints of its route as two ints
+ * instead of two strings. There are only a few hundred cities but possibly millions of voyages, so every name is
+ * stored once in the shared table, and comparing or grouping routes only compares ints.
+ *
+ * Codes are assigned in the order the names are first seen, starting from 0, and are never reused. Encoding is
+ * thread-safe; reading a name is a plain array access.
+ */
+public class CityDictionary {
+    /**
+     * The dictionary used by every Bus.
+     */
+    public static final CityDictionary SHARED = new CityDictionary();
+
+    private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[64];
+    private int size;
+
+    /**
+     * Returns the code of a city, adding the city to the dictionary if it is new.
+     *
+     * @param name The name of the city.
+     * @return The code of the city.
+     */
+    public int encode(String name) {
+        Integer code = codes.get(name);
+        if (code != null) {
+            return code;
+        }
+        synchronized (this) {
+            code = codes.get(name);
+            if (code != null) {
+                return code;
+            }
+            String[] table = names;
+            if (size == table.length) {
+                table = Arrays.copyOf(table, size * 2);
+            }
+            table[size] = name;
+            names = table;
+            // The name is in the table before its code can be seen by other threads
+            codes.put(name, size);
+            return size++;
+        }
+    }
+
+    /**
+     * Returns the code of a city without adding it.
+     *
+     * @param name The name of the city.
+     * @return The code of the city, or -1 if the city is not in the dictionary.
+     */
+    public int find(String name) {
+        Integer code = codes.get(name);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @param code The code of a city.
+     * @return The name of the city.
+     */
+    public String name(int code) {
+        return names[code];
+    }
+
+    /**
+     * @return The number of cities in the dictionary.
+     */
+    public int size() {
+        return codes.size();
+    }
+
+    /**
+     * Combines the codes of a departure and an arrival into one key, e.g. to group voyages by route.
+     *
+     * @param from The code of the departure city.
+     * @param to   The code of the arrival city.
+     * @return The key of the route.
+     */
+    public static long routeKey(int from, int to) {
+        return ((long) from << 32) | (to & 0xffffffffL);
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * This class is a streaming replacement for FileInput.readFile. Instead of loading the whole command file into a
+ * string array, it keeps a single line of lookahead so the caller can process one command at a time and still know
+ * whether the current command is the last one in the file.
+ *
+ * A binary command log (see BinaryCommandLog) is read by the BinaryCommandReader subclass, which open returns for
+ * such a file, so the callers do not need to know which kind of file they read.
+ */
+public class CommandReader implements AutoCloseable {
+    private final BufferedReader reader;
+    private final boolean discardEmptyLines;
+    private final boolean trim;
+    private String nextLine;
+
+    /**
+     * Constructor for the CommandReader class. Reads the first line so that hasNext() can answer immediately.
+     *
+     * @param reader            The reader the lines are taken from.
+     * @param discardEmptyLines If true, discards empty lines with respect to trim; else, it takes all the lines.
+     * @param trim              Trim status; if true, trims each line; else, it leaves each line as-is.
+     */
+    public CommandReader(BufferedReader reader, boolean discardEmptyLines, boolean trim) {
+        this.reader = reader;
+        this.discardEmptyLines = discardEmptyLines;
+        this.trim = trim;
+        advance();
+    }
+
+    /**
+     * Constructor for subclasses that produce the lines themselves and override hasNext, next and close.
+     */
+    protected CommandReader() {
+        this.reader = null;
+        this.discardEmptyLines = true;
+        this.trim = true;
+    }
+
+    /**
+     * Opens the file at the given path with the same rules as FileInput.readFile. A binary command log is opened
+     * with a BinaryCommandReader; its lines were trimmed and empty lines left out when it was converted.
+     *
+     * @param path              Path to the file that is going to be read.
+     * @param discardEmptyLines If true, discards empty lines with respect to trim; else, it takes all the lines from the file.
+     * @param trim              Trim status; if true, trims each line; else, it leaves each line as-is.
+     * @return A reader positioned at the first line, returns null if there is not such a file or this program does not have sufficient permissions to read that file.
+     */
+    public static CommandReader open(String path, boolean discardEmptyLines, boolean trim) {
+        try {
+            if (BinaryCommandLog.isLog(path)) {
+                InputStream in = Files.newInputStream(Paths.get(path));
+                try {
+                    return new BinaryCommandReader(in);
+                } catch (RuntimeException e) {
+                    in.close();
+                    throw e;
+                }
+            }
+            return new CommandReader(Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8), discardEmptyLines, trim);
+        } catch (IOException | UncheckedIOException e) { //Returns null if there is no such a file.
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @return True if there is at least one more line to read.
+     */
+    public boolean hasNext() {
+        return nextLine != null;
+    }
+
+    /**
+     * Returns the current line and reads the one after it.
+     *
+     * @return The next line of the file, or null if the end of the file has been reached.
+     */
+    public String next() {
+        String line = nextLine;
+        if (line != null) {
+            advance();
+        }
+        return line;
+    }
+
+    /**
+     * Reads lines until one that is not discarded is found, or the end of the file is reached.
+     */
+    private void advance() {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (discardEmptyLines && line.trim().isEmpty()) { //Skips the lines that are empty with respect to trim.
+                    continue;
+                }
+                nextLine = trim ? line.trim() : line;
+                return;
+            }
+            nextLine = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Closes the underlying file.
+     */
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
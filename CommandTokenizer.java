@@ -0,0 +1,400 @@
+import java.util.Arrays;
+
+/**
+ * This class splits a command line into fields without creating intermediate strings or arrays. It only records
+ * where each field starts and ends in the line, so the same tokenizer can be reused for every command.
+ *
+ * Fields follow the rules of line.split("\t"): a line without tabs is a single field and trailing empty fields are
+ * dropped. A field can be split once more (e.g. a seat list on '_') with splitField, following the same rules.
+ */
+public class CommandTokenizer {
+    /**
+     * Returned by the integer parsers when the text is not an integer accepted by Integer.parseInt.
+     */
+    public static final long NOT_AN_INT = Long.MIN_VALUE;
+
+    /**
+     * Returned by the floating point parsers when the text is not a number accepted by Double.parseDouble. It is a
+     * NaN bit pattern that Double.parseDouble never produces, so it cannot be confused with a parsed value.
+     */
+    public static final long NOT_A_DOUBLE = 0x7ff0000000000001L;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private String line;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int count;
+    private int[] subStarts = new int[16];
+    private int[] subEnds = new int[16];
+    private int subCount;
+
+    /**
+     * Tokenizes the given line, replacing the previous one.
+     *
+     * @param line The command line.
+     * @return This tokenizer.
+     */
+    public CommandTokenizer reset(String line) {
+        this.line = line;
+        count = 0;
+        int start = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '\t') {
+                addField(start, i);
+                start = i + 1;
+            }
+        }
+        if (count == 0) { //A line without separators is a single field, even if it is empty
+            addField(0, line.length());
+            return this;
+        }
+        addField(start, line.length());
+        while (count > 0 && starts[count - 1] == ends[count - 1]) {
+            count--;
+        }
+        return this;
+    }
+
+    public String getLine() {
+        return line;
+    }
+
+    /**
+     * @return The number of fields in the line.
+     */
+    public int fieldCount() {
+        return count;
+    }
+
+    /**
+     * @param i    Index of the field.
+     * @param text The text to compare with.
+     * @return True if the field is exactly the given text.
+     */
+    public boolean fieldEquals(int i, String text) {
+        int length = ends[i] - starts[i];
+        return length == text.length() && line.regionMatches(starts[i], text, 0, length);
+    }
+
+    /**
+     * Creates a string of the field; only meant for values that are kept or written to the output.
+     *
+     * @param i Index of the field.
+     * @return The text of the field.
+     */
+    public String field(int i) {
+        return line.substring(starts[i], ends[i]);
+    }
+
+    /**
+     * Parses the field as an integer in place.
+     *
+     * @param i Index of the field.
+     * @return The value of the field, or NOT_AN_INT if it is not an integer.
+     */
+    public long intField(int i) {
+        return parseInt(line, starts[i], ends[i]);
+    }
+
+    /**
+     * Parses the field as a floating point number in place.
+     *
+     * @param i Index of the field.
+     * @return The bits of the value (see Double.longBitsToDouble), or NOT_A_DOUBLE if it is not a number.
+     */
+    public long doubleField(int i) {
+        return parseDouble(line, starts[i], ends[i]);
+    }
+
+    /**
+     * Splits a field once more on the given separator, with the rules of String.split. The parts can then be
+     * read with the subField methods until the next call.
+     *
+     * @param i         Index of the field.
+     * @param separator The separator character.
+     * @return The number of parts.
+     */
+    public int splitField(int i, char separator) {
+        subCount = 0;
+        int start = starts[i];
+        int end = ends[i];
+        for (int j = start; j < end; j++) {
+            if (line.charAt(j) == separator) {
+                addSubField(start, j);
+                start = j + 1;
+            }
+        }
+        if (subCount == 0) {
+            addSubField(start, end);
+            return subCount;
+        }
+        addSubField(start, end);
+        while (subCount > 0 && subStarts[subCount - 1] == subEnds[subCount - 1]) {
+            subCount--;
+        }
+        return subCount;
+    }
+
+    /**
+     * @param k Index of the part.
+     * @return The text of the part.
+     */
+    public String subField(int k) {
+        return line.substring(subStarts[k], subEnds[k]);
+    }
+
+    /**
+     * @param k Index of the part.
+     * @return The value of the part, or NOT_AN_INT if it is not an integer.
+     */
+    public long intSubField(int k) {
+        return parseInt(line, subStarts[k], subEnds[k]);
+    }
+
+    /**
+     * Appends the text of the part to the given builder without creating a string for it.
+     *
+     * @param k       Index of the part.
+     * @param builder The builder the part is appended to.
+     */
+    public void appendSubField(int k, StringBuilder builder) {
+        builder.append(line, subStarts[k], subEnds[k]);
+    }
+
+    /**
+     * Parses an integer with the same accept/reject rules as Integer.parseInt (an optional sign followed by at
+     * least one decimal digit, in the int range), without throwing an exception.
+     *
+     * @param text The text that contains the number.
+     * @param from Index of the first character.
+     * @param to   Index after the last character.
+     * @return The value, or NOT_AN_INT if the text is not an integer.
+     */
+    public static long parseInt(CharSequence text, int from, int to) {
+        if (from >= to) {
+            return NOT_AN_INT;
+        }
+        boolean negative = false;
+        char first = text.charAt(from);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++from == to) {
+                return NOT_AN_INT;
+            }
+        }
+        long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(text.charAt(i), 10);
+            if (digit < 0) {
+                return NOT_AN_INT;
+            }
+            value = value * 10 + digit;
+            if (value > limit) {
+                return NOT_AN_INT;
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a floating point number with the same accept/reject rules as Double.parseDouble, without throwing an
+     * exception. Plain decimals with up to 15 significant digits are converted while they are checked; other
+     * accepted forms (hexadecimal, long mantissas, large exponents) are validated first and then handed to
+     * Double.parseDouble, which can no longer fail.
+     *
+     * @param text The text that contains the number.
+     * @param from Index of the first character.
+     * @param to   Index after the last character.
+     * @return The bits of the value (see Double.longBitsToDouble), or NOT_A_DOUBLE if the text is not a number.
+     */
+    public static long parseDouble(CharSequence text, int from, int to) {
+        while (from < to && text.charAt(from) <= ' ') { //Double.parseDouble trims the text first
+            from++;
+        }
+        while (to > from && text.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        if (from == to) {
+            return NOT_A_DOUBLE;
+        }
+        int i = from;
+        boolean negative = false;
+        char c = text.charAt(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            if (++i == to) {
+                return NOT_A_DOUBLE;
+            }
+            c = text.charAt(i);
+        }
+        if (c == 'N') {
+            return matches(text, i, to, "NaN") ? Double.doubleToRawLongBits(Double.NaN) : NOT_A_DOUBLE;
+        }
+        if (c == 'I') {
+            return matches(text, i, to, "Infinity")
+                    ? Double.doubleToRawLongBits(negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY) : NOT_A_DOUBLE;
+        }
+        if (c == '0' && i + 1 < to && (text.charAt(i + 1) == 'x' || text.charAt(i + 1) == 'X')) {
+            return isHexFloat(text, i + 2, to)
+                    ? Double.doubleToRawLongBits(Double.parseDouble(text.subSequence(from, to).toString())) : NOT_A_DOUBLE;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean sawDigit = false;
+        boolean sawDot = false;
+        boolean exact = true;
+        for (; i < to; i++) {
+            c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                sawDigit = true;
+                if (mantissa == 0 && c == '0') { //Leading zeros only move the decimal point
+                    if (sawDot) {
+                        exponent--;
+                    }
+                } else if (digits < 18) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    digits++;
+                    if (sawDot) {
+                        exponent--;
+                    }
+                } else {
+                    exact &= c == '0';
+                    if (!sawDot) {
+                        exponent++;
+                    }
+                }
+            } else if (c == '.' && !sawDot) {
+                sawDot = true;
+            } else {
+                break;
+            }
+        }
+        if (!sawDigit) {
+            return NOT_A_DOUBLE;
+        }
+        if (i < to && (c == 'e' || c == 'E')) {
+            if (++i == to) {
+                return NOT_A_DOUBLE;
+            }
+            boolean negativeExponent = false;
+            c = text.charAt(i);
+            if (c == '-' || c == '+') {
+                negativeExponent = c == '-';
+                i++;
+            }
+            int start = i;
+            int value = 0;
+            for (; i < to && (c = text.charAt(i)) >= '0' && c <= '9'; i++) {
+                if (value < 100000) { //Anything past this is already zero or infinity
+                    value = value * 10 + (c - '0');
+                }
+            }
+            if (i == start) {
+                return NOT_A_DOUBLE;
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (i == to - 1 && (c == 'f' || c == 'F' || c == 'd' || c == 'D')) {
+            i++;
+        }
+        if (i != to) {
+            return NOT_A_DOUBLE;
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (exact && mantissa < (1L << 53) && exponent >= -22 && exponent <= 22) {
+            //Both operands are exact, so a single multiplication or division is correctly rounded
+            value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        } else {
+            return Double.doubleToRawLongBits(Double.parseDouble(text.subSequence(from, to).toString()));
+        }
+        return Double.doubleToRawLongBits(negative ? -value : value);
+    }
+
+    /**
+     * Checks the part of a hexadecimal floating point literal after "0x": hex digits with an optional point, a
+     * binary exponent and an optional type suffix.
+     */
+    private static boolean isHexFloat(CharSequence text, int i, int to) {
+        int before = 0;
+        int after = 0;
+        boolean sawDot = false;
+        for (; i < to; i++) {
+            char c = text.charAt(i);
+            if (Character.digit(c, 16) >= 0 && c < 128) {
+                if (sawDot) {
+                    after++;
+                } else {
+                    before++;
+                }
+            } else if (c == '.' && !sawDot) {
+                sawDot = true;
+            } else {
+                break;
+            }
+        }
+        if (before == 0 && after == 0) {
+            return false;
+        }
+        if (i == to || (text.charAt(i) != 'p' && text.charAt(i) != 'P')) {
+            return false;
+        }
+        i++;
+        if (i < to && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            i++;
+        }
+        int start = i;
+        while (i < to && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+        }
+        if (i == start) {
+            return false;
+        }
+        char c = i < to ? text.charAt(i) : 0;
+        if (i == to - 1 && (c == 'f' || c == 'F' || c == 'd' || c == 'D')) {
+            i++;
+        }
+        return i == to;
+    }
+
+    private static boolean matches(CharSequence text, int from, int to, String word) {
+        if (to - from != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (text.charAt(from + i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addField(int start, int end) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    private void addSubField(int start, int end) {
+        if (subCount == subStarts.length) {
+            subStarts = Arrays.copyOf(subStarts, subCount * 2);
+            subEnds = Arrays.copyOf(subEnds, subCount * 2);
+        }
+        subStarts[subCount] = start;
+        subEnds[subCount] = end;
+        subCount++;
+    }
+}
@@ -0,0 +1,67 @@
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * An unsynchronized in-memory writer that keeps the output of commands that ran out of order (the commands of a
+ * shard, or of one voyage in a batch) until it is merged back into command order. The content is read directly from
+ * the buffer, so merging copies it only once.
+ */
+final class FragmentWriter extends Writer {
+    private char[] buffer = new char[1 << 12];
+    private int length;
+
+    @Override
+    public void write(char[] content, int offset, int count) {
+        ensureCapacity(count);
+        System.arraycopy(content, offset, buffer, length, count);
+        length += count;
+    }
+
+    @Override
+    public void write(String content) {
+        ensureCapacity(content.length());
+        content.getChars(0, content.length(), buffer, length);
+        length += content.length();
+    }
+
+    @Override
+    public void write(int c) {
+        ensureCapacity(1);
+        buffer[length++] = (char) c;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * @return The buffer holding the content, valid until the next write.
+     */
+    char[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return The number of characters written since the last reset.
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Discards the content.
+     */
+    void reset() {
+        length = 0;
+    }
+
+    private void ensureCapacity(int count) {
+        if (length + count > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(length + count, buffer.length * 2));
+        }
+    }
+}
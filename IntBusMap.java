@@ -0,0 +1,187 @@
+import java.util.Arrays;
+
+/**
+ * This class is a hash map from primitive int voyage IDs to Bus objects. It uses open addressing with linear probing
+ * in two parallel arrays, so a lookup is a single probe sequence without boxing the ID, and an entry costs one int
+ * and one reference instead of a node object and an Integer.
+ *
+ * A slot is empty when its value is null, so every int (including 0 and negative IDs) can be used as a key. Removal
+ * shifts the following entries of the probe sequence back instead of leaving tombstones.
+ */
+public class IntBusMap {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    private Bus[] values;
+    private int mask;
+    private int shift;
+    private int size;
+    private int resizeAt;
+
+    /**
+     * Constructor for the IntBusMap class with room for 12 voyages before it grows.
+     */
+    public IntBusMap() {
+        allocate(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param id The voyage ID.
+     * @return The bus of the voyage, or null if there is no voyage with that ID.
+     */
+    public Bus get(int id) {
+        for (int slot = slot(id); ; slot = (slot + 1) & mask) {
+            Bus value = values[slot];
+            if (value == null || keys[slot] == id) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @param id The voyage ID.
+     * @return True if there is a voyage with that ID.
+     */
+    public boolean containsKey(int id) {
+        return get(id) != null;
+    }
+
+    /**
+     * Adds or replaces the bus of a voyage.
+     *
+     * @param id  The voyage ID.
+     * @param bus The bus of the voyage, must not be null.
+     * @return The previous bus of the voyage, or null if there was none.
+     */
+    public Bus put(int id, Bus bus) {
+        int slot = find(id);
+        Bus previous = values[slot];
+        keys[slot] = id;
+        values[slot] = bus;
+        if (previous == null && ++size > resizeAt) {
+            allocate(keys.length * 2);
+        }
+        return previous;
+    }
+
+    /**
+     * Adds the bus of a voyage unless there already is a voyage with that ID.
+     *
+     * @param id  The voyage ID.
+     * @param bus The bus of the voyage, must not be null.
+     * @return The bus already registered with that ID, or null if the given bus was added.
+     */
+    public Bus putIfAbsent(int id, Bus bus) {
+        int slot = find(id);
+        if (values[slot] != null) {
+            return values[slot];
+        }
+        keys[slot] = id;
+        values[slot] = bus;
+        if (++size > resizeAt) {
+            allocate(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removes a voyage.
+     *
+     * @param id The voyage ID.
+     * @return The removed bus, or null if there was no voyage with that ID.
+     */
+    public Bus remove(int id) {
+        int slot = find(id);
+        Bus previous = values[slot];
+        if (previous != null) {
+            delete(slot);
+        }
+        return previous;
+    }
+
+    /**
+     * Removes a voyage only if it is still registered with the given bus.
+     *
+     * @param id  The voyage ID.
+     * @param bus The bus expected for the voyage.
+     * @return True if the voyage was removed.
+     */
+    public boolean remove(int id, Bus bus) {
+        int slot = find(id);
+        if (values[slot] == null || values[slot] != bus) {
+            return false;
+        }
+        delete(slot);
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes every voyage, keeping the allocated arrays.
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Spreads the bits of the ID with a multiplicative (Fibonacci) hash and takes the top bits as the home slot.
+     */
+    private int slot(int id) {
+        return (id * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * @return The slot that holds the ID, or the empty slot where it would be inserted.
+     */
+    private int find(int id) {
+        int slot = slot(id);
+        while (values[slot] != null && keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Empties a slot and moves back the entries after it that would otherwise become unreachable.
+     */
+    private void delete(int slot) {
+        int gap = slot;
+        for (int next = (gap + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+            int home = slot(keys[next]);
+            // The entry can fill the gap if its home slot is not cyclically between the gap and its current slot
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        values[gap] = null;
+        size--;
+    }
+
+    /**
+     * Allocates arrays of the given power of two capacity and moves the existing entries into them.
+     */
+    private void allocate(int capacity) {
+        int[] oldKeys = keys;
+        Bus[] oldValues = values;
+        keys = new int[capacity];
+        values = new Bus[capacity];
+        mask = capacity - 1;
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+        resizeAt = capacity * 3 / 4;
+        if (oldValues != null) {
+            for (int i = 0; i < oldValues.length; i++) {
+                if (oldValues[i] != null) {
+                    int slot = find(oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
@@ -10,7 +10,7 @@
  *  - price: Base price per seat.
  *  - revenue: Current revenue for the bus.
  *  - capacity: Total number of seats in the bus (automatically calculated as rows * 2).
- *  - seats: Boolean array representing seat availability (true for occupied, false for vacant).
+ *  - seats: SeatMap representing seat availability (a set bit for occupied, a clear bit for vacant).
  *
  */
 public class Minibus extends Bus {
@@ -30,63 +30,28 @@ public class Minibus extends Bus {
     public Minibus(int ID, String from, String to, int rows, double price, double revenue, int refundCut, int premiumFee) {
         super(ID, from, to, rows, price, revenue, refundCut, premiumFee);
         setCapacity(2 * rows);
-        seats = new boolean[capacity];
+        seats = new SeatMap(capacity);
         initializeSeats(this.seats, capacity);
     }
 
     /**
-     * Initializes the seat availability array for the Minibus. Sets all seats to vacant (false).
+     * Initializes the seat availability map for the Minibus. Sets all seats to vacant.
      *
-     * @param seats The boolean array to be used for seat availability (true for occupied, false for vacant).
+     * @param seats The SeatMap to be used for seat availability (a set bit for occupied, a clear bit for vacant).
      * @param capacity The total number of seats in the bus.
      */
-    public void initializeSeats(boolean[] seats,int capacity) {
-        // false: boş, true : dolu
-        for (int i = 0; i < capacity; i++) {
-            seats[i] = false;
-        }
-    }
-
-    /**
-     * Updates the bus revenue by adding the specified amount.
-     *
-     * @param amount The amount to be added to the bus revenue.
-     */
-    public void increaseRevenue(double amount){
-        setRevenue(getRevenue() + amount);
-    }
-
-    /**
-     * Updates the bus revenue by subtracting the specified amount (not allowed for Minibuses).
-     *
-     * @param amount The amount to be subtracted from the bus revenue (ignored for Minibuses).
-     */
-    public void decreaseRevenue(double amount){
-        setRevenue(getRevenue() - amount);
+    public void initializeSeats(SeatMap seats, int capacity) {
+        seats.clear();
     }
 
     /**
      * Writes the Minibus seating plan to the output file. The plan uses "X" to represent occupied seats
      * and "*" for vacant seats, with a space in between seats on the same row and a newline after each row.
+     * The occupied seats are filled into the row template of SeatPlanRenderer and the plan is written at once.
      *
-     * @param args The command line arguments passed to the program (unused in this method).
+     * @param output The output sink the seating plan is written to.
      */
-    public void writeBusPlan(String[] args){
-        int capacity = getCapacity();
-        boolean[] seats = getSeats();
-        for (int i= 0; i < capacity; i++){
-            if (seats[i] == false && (i+1) % 2 == 1){
-                FileOutput.writeToFile(args[1], "* ", true, false);
-            }
-            else if (seats[i] == false && (i+1) % 2 == 0){
-                FileOutput.writeToFile(args[1], "*", true, true);
-            }
-            else if(seats[i] == true && (i+1) % 2 == 1){
-                FileOutput.writeToFile(args[1], "X ", true, false);
-            }
-            else if(seats[i] == true &&  (i+1) % 2 == 0){
-                FileOutput.writeToFile(args[1], "X", true, true);
-            }
-        }
+    public void writeBusPlan(OutputSink output){
+        SeatPlanRenderer.MINIBUS.write(getSeats(), getRows(), output);
     }
 }
@@ -0,0 +1,204 @@
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * This class is a buffered replacement for FileOutput.writeToFile. The output file is opened once per run and every
+ * fragment is appended to an in-memory buffer, which is pushed to the file according to the chosen flush policy.
+ * The bytes that end up in the file are the same as the ones FileOutput.writeToFile would have produced.
+ */
+public class OutputSink implements AutoCloseable {
+    /**
+     * Default size of the character buffer in front of the file.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Decides when the buffered content is pushed to the file.
+     *
+     *  - EVERY_WRITE: Flushes after every fragment (same durability as FileOutput.writeToFile).
+     *  - EVERY_LINE: Flushes whenever a fragment ends a line.
+     *  - ON_FULL: Flushes only when the buffer is full and when the sink is closed.
+     */
+    public enum FlushPolicy {
+        EVERY_WRITE,
+        EVERY_LINE,
+        ON_FULL
+    }
+
+    private final String path;
+    private final FlushPolicy flushPolicy;
+    private Writer writer;
+    private volatile long bytesWritten;
+
+    /**
+     * Constructor for the OutputSink class. Opens the file at the given path.
+     *
+     * @param path        Path for the file content is going to be written.
+     * @param append      Append status, true if wanted to append to file if it exists, false if wanted to create file from zero.
+     * @param flushPolicy The policy that decides when the buffer is flushed to the file.
+     * @param bufferSize  Size of the character buffer.
+     */
+    public OutputSink(String path, boolean append, FlushPolicy flushPolicy, int bufferSize) {
+        this.path = path;
+        this.flushPolicy = flushPolicy;
+        try {
+            OutputStream file = new FilterOutputStream(new FileOutputStream(path, append)) {
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    out.write(bytes, offset, length);
+                    bytesWritten += length;
+                }
+            };
+            writer = new BufferedWriter(new OutputStreamWriter(file, Charset.defaultCharset()), bufferSize);
+        } catch (FileNotFoundException e) { //Writes are ignored if the file could not be opened, just like FileOutput.
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Constructor for the OutputSink class with the default buffer size.
+     *
+     * @param path        Path for the file content is going to be written.
+     * @param append      Append status, true if wanted to append to file if it exists, false if wanted to create file from zero.
+     * @param flushPolicy The policy that decides when the buffer is flushed to the file.
+     */
+    public OutputSink(String path, boolean append, FlushPolicy flushPolicy) {
+        this(path, append, flushPolicy, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor for the OutputSink class that writes to an already open writer instead of a file, e.g. the
+     * connection of a sales channel. The writer is used as it is, so it should be buffered unless it already
+     * writes to memory.
+     *
+     * @param writer      The writer the content is written to.
+     * @param flushPolicy The policy that decides when the writer is flushed.
+     */
+    public OutputSink(Writer writer, FlushPolicy flushPolicy) {
+        this.path = null;
+        this.flushPolicy = flushPolicy;
+        this.writer = writer;
+    }
+
+    /**
+     * Creates a sink that ignores everything written to it, for commands whose messages are not needed.
+     *
+     * @return The new sink.
+     */
+    public static OutputSink discard() {
+        return new OutputSink((Writer) null, FlushPolicy.ON_FULL);
+    }
+
+    /**
+     * Reads the flush policy from the "booking.flushPolicy" system property, ON_FULL if it is not set.
+     *
+     * @return The configured flush policy.
+     */
+    public static FlushPolicy configuredFlushPolicy() {
+        return FlushPolicy.valueOf(System.getProperty("booking.flushPolicy", FlushPolicy.ON_FULL.name()));
+    }
+
+    /**
+     * This method writes given content to the buffer.
+     *
+     * @param content Content that is going to be written to file.
+     * @param newLine True if wanted to append a new line after content, false if vice versa.
+     */
+    public void write(String content, boolean newLine) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(content);
+            if (newLine) {
+                writer.write('\n');
+            }
+            boolean endsLine = newLine || (!content.isEmpty() && content.charAt(content.length() - 1) == '\n');
+            if (flushPolicy == FlushPolicy.EVERY_WRITE || (endsLine && flushPolicy == FlushPolicy.EVERY_LINE)) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * This method writes a range of characters that already contains its own line breaks to the buffer.
+     *
+     * @param content The characters that are going to be written to file.
+     * @param offset  Index of the first character.
+     * @param length  Number of characters.
+     */
+    public void write(char[] content, int offset, int length) {
+        if (writer == null || length == 0) {
+            return;
+        }
+        try {
+            writer.write(content, offset, length);
+            boolean newLine = content[offset + length - 1] == '\n';
+            if (flushPolicy == FlushPolicy.EVERY_WRITE || (newLine && flushPolicy == FlushPolicy.EVERY_LINE)) {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Pushes the buffered content to the file.
+     */
+    public void flush() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Flushes all the content and closes the file.
+     */
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            writer = null;
+        }
+    }
+
+    /**
+     * Returns the number of bytes pushed to the file so far, without the content that is still buffered. Always 0
+     * for a sink that writes to a writer.
+     *
+     * @return The number of bytes written.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return Path of the output file, null if the sink writes to a writer.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+}
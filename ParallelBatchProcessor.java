@@ -0,0 +1,447 @@
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * This class is a batch mode of PlayGround.readProcessData that processes the commands of an input file on several
+ * threads and writes exactly the same output.
+ *
+ * Commands are collected into segments that end at every Z_REPORT, at the last command, or after SEGMENT_SIZE
+ * commands. The commands of a segment are sharded by voyage ID (a command without a valid ID does not read any
+ * voyage, so it can go to any shard), every shard runs its commands in file order on a ForkJoinPool with a PlayGround
+ * of its own, and the output fragments of the shards are then merged back into file order. Z_REPORT, SEARCH_VOYAGES,
+ * CANCEL_ROUTE and the last command use voyages of every shard, so they run on the calling thread after the segment
+ * before them has been merged and act as barriers; the voyages a barrier removes are removed from their shards too.
+ * All PlayGrounds share one route index for SEARCH_VOYAGES and CANCEL_ROUTE, and one set of seat holds. The hold
+ * commands are barriers as well, so the holds get their IDs in file order. Expired holds are collected on the reading
+ * thread before every command; when some have expired, the commands before it are run first and the seats are given
+ * back in between, so the shards never expire holds and see the seats as the sequential run does.
+ *
+ * The registry passed in by the caller is kept identical to the one of a sequential run: the voyages added and
+ * removed by the shards are replayed on it in file order when the segment is merged, so the Z reports list the
+ * voyages in the same order.
+ */
+public class ParallelBatchProcessor {
+    /**
+     * Largest number of commands in a segment, which bounds the memory held by the output fragments.
+     */
+    public static final int SEGMENT_SIZE = 1 << 16;
+
+    private final OutputSink output;
+    private final PlayGround playGround;
+    private final CommandTokenizer tokenizer = new CommandTokenizer();
+    private final ForkJoinPool pool;
+    private final Shard[] shards;
+
+    private String[] lines = new String[1024];
+    private int[] shardOf = new int[1024];
+    private int pending;
+
+    /**
+     * Constructor for the ParallelBatchProcessor class.
+     *
+     * @param output      The output sink the merged output is written to.
+     * @param parallelism The number of threads the shards run on.
+     */
+    public ParallelBatchProcessor(OutputSink output, int parallelism) {
+        this.output = output;
+        this.playGround = new PlayGround(output);
+        this.pool = new ForkJoinPool(parallelism);
+        // A few shards per thread keep the threads busy when the voyages are not evenly used
+        this.shards = new Shard[parallelism * 4];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard();
+            shards[i].playGround.setRouteIndex(playGround.getRouteIndex());
+            shards[i].playGround.setHolds(playGround.getHolds());
+        }
+    }
+
+    /**
+     * Sets the journal the successful state-changing commands are appended to, null for none. The records of a
+     * voyage keep their file order; records of different voyages may interleave differently than in the file.
+     *
+     * @param journal The journal.
+     */
+    public void setJournal(BookingJournal journal) {
+        playGround.setJournal(journal);
+        for (Shard shard : shards) {
+            shard.playGround.setJournal(journal);
+        }
+    }
+
+    /**
+     * Sets the metrics every command is recorded in, null for none. The metrics are shared by every shard.
+     *
+     * @param metrics The metrics.
+     */
+    public void setMetrics(BookingMetrics metrics) {
+        playGround.setMetrics(metrics);
+        for (Shard shard : shards) {
+            shard.playGround.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * Reads the number of threads from the "booking.parallelism" system property, 1 (sequential) if it is not set.
+     *
+     * @return The configured parallelism.
+     */
+    public static int configuredParallelism() {
+        return Integer.getInteger("booking.parallelism", 1);
+    }
+
+    /**
+     * This method reads the input file line by line and processes the commands in parallel segments, with the same
+     * checks and output as PlayGround.readProcessData.
+     *
+     * @param args The command line arguments passed to the program.
+     * @param commands The reader that streams the lines of the input file, null if the file could not be opened.
+     * @param buses A Map that stores Bus objects identified by their voyage ID.
+     */
+    public void readProcessData(String[] args, CommandReader commands, Map<Integer, Bus> buses) {
+        playGround.checkFiles(args, commands);
+        Map<Integer, Bus> shared = new BarrierRegistry(buses);
+        // Voyages that are already registered (e.g. recovered from a journal) belong to the shards of their IDs
+        for (Map.Entry<Integer, Bus> entry : buses.entrySet()) {
+            shards[Math.floorMod(entry.getKey(), shards.length)].registry.put(entry.getKey(), entry.getValue());
+        }
+        try {
+            int loopAmount1 = 0;
+            while (commands.hasNext()) {
+                String line = commands.next();
+                loopAmount1 += 1;
+                boolean lastLine = !commands.hasNext();
+                SeatHolds holds = playGround.getHolds();
+                holds.advance(1);
+                List<SeatHolds.Hold> expired = holds.expire();
+                if (!expired.isEmpty()) {
+                    runSegment(args, buses);
+                    playGround.releaseHolds(expired);
+                }
+                CommandTokenizer command = tokenizer.reset(line);
+                if (lastLine || command.fieldEquals(0, "Z_REPORT") || command.fieldEquals(0, "SEARCH_VOYAGES")
+                        || command.fieldEquals(0, "CANCEL_ROUTE") || command.fieldEquals(0, "HOLD_SEATS")
+                        || command.fieldEquals(0, "CONFIRM_HOLD") || command.fieldEquals(0, "RELEASE_HOLD")) {
+                    runSegment(args, buses);
+                    playGround.executeCommand(args, line, lastLine, shared);
+                } else {
+                    add(line, shardOf(command));
+                    if (pending == SEGMENT_SIZE) {
+                        runSegment(args, buses);
+                    }
+                }
+            }
+            if (loopAmount1 == 0) {
+                playGround.finalZReport(args, buses);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Picks the shard of a command from the voyage ID it refers to.
+     *
+     * @param command The tokenized command line.
+     * @return Index of the shard.
+     */
+    private int shardOf(CommandTokenizer command) {
+        int idField = command.fieldEquals(0, "INIT_VOYAGE") ? 2 : 1;
+        if (command.fieldCount() <= idField) {
+            return 0;
+        }
+        long id = command.intField(idField);
+        if (id == CommandTokenizer.NOT_AN_INT) {
+            return 0;
+        }
+        return Math.floorMod((int) id, shards.length);
+    }
+
+    private void add(String line, int shard) {
+        if (pending == lines.length) {
+            lines = Arrays.copyOf(lines, pending * 2);
+            shardOf = Arrays.copyOf(shardOf, pending * 2);
+        }
+        lines[pending] = line;
+        shardOf[pending] = shard;
+        pending++;
+    }
+
+    /**
+     * Runs the pending commands on the shards and merges their output and registry changes in file order. If a
+     * command fails, the output of the commands before it and its own partial output are written, as they would be in
+     * a sequential run, and its exception is rethrown.
+     */
+    private void runSegment(String[] args, Map<Integer, Bus> buses) {
+        if (pending == 0) {
+            return;
+        }
+        for (Shard shard : shards) {
+            shard.reset();
+        }
+        for (int i = 0; i < pending; i++) {
+            shards[shardOf[i]].commands.add(i);
+        }
+        List<Future<Void>> tasks = new ArrayList<>();
+        for (Shard shard : shards) {
+            if (shard.commands.size() > 0) {
+                shard.args = args;
+                tasks.add(pool.submit(shard));
+            }
+        }
+        for (Future<Void> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) { //Failures of the commands are kept by the shards, this is a bug
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        Throwable failure = null;
+        for (int i = 0; i < pending && failure == null; i++) {
+            Shard shard = shards[shardOf[i]];
+            int k = shard.next++;
+            int start = k == 0 ? 0 : shard.ends[k - 1];
+            output.write(shard.text.buffer(), start, shard.ends[k] - start);
+            shard.registry.replay(i, buses);
+            if (shard.failure != null && k == shard.commands.size() - 1) {
+                failure = shard.failure;
+            }
+        }
+        Arrays.fill(lines, 0, pending, null);
+        pending = 0;
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw (Error) failure;
+        }
+    }
+
+    /**
+     * The commands of one segment that belong to the same group of voyages, with the PlayGround and registry they run
+     * on and the output they produced.
+     */
+    private final class Shard implements Callable<Void> {
+        private final FragmentWriter text = new FragmentWriter();
+        private final PlayGround playGround = new PlayGround(new OutputSink(text, OutputSink.FlushPolicy.ON_FULL));
+        private final RecordingRegistry registry = new RecordingRegistry();
+        private final IntList commands = new IntList();
+        private int[] ends = new int[16];
+        private String[] args;
+        private Throwable failure;
+        private int next;
+
+        private void reset() {
+            text.reset();
+            commands.size = 0;
+            registry.changes.clear();
+            registry.replayed = 0;
+            failure = null;
+            next = 0;
+        }
+
+        @Override
+        public Void call() {
+            int count = commands.size();
+            if (ends.length < count) {
+                ends = new int[Math.max(count, ends.length * 2)];
+            }
+            for (int k = 0; k < count; k++) {
+                int index = commands.get(k);
+                registry.command = index;
+                try {
+                    playGround.executeCommand(args, lines[index], false, registry);
+                } catch (RuntimeException | Error e) {
+                    // The commands after a failure are dropped, like in a sequential run
+                    failure = e;
+                    ends[k] = text.length();
+                    commands.size = k + 1;
+                    return null;
+                }
+                ends[k] = text.length();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The voyages of one shard. Every voyage added or removed is recorded with the index of the command that did it,
+     * so the change can be replayed on the shared registry in file order.
+     */
+    private static final class RecordingRegistry extends VoyageRegistry {
+        private final List<Change> changes = new ArrayList<>();
+        private int replayed;
+        private int command;
+
+        @Override
+        public Bus put(Integer id, Bus bus) {
+            Bus previous = super.put(id, bus);
+            changes.add(new Change(command, id, bus));
+            return previous;
+        }
+
+        @Override
+        public Bus putIfAbsent(Integer id, Bus bus) {
+            Bus previous = super.putIfAbsent(id, bus);
+            if (previous == null) {
+                changes.add(new Change(command, id, bus));
+            }
+            return previous;
+        }
+
+        @Override
+        public Bus remove(Object id) {
+            Bus previous = super.remove(id);
+            if (previous != null) {
+                changes.add(new Change(command, (Integer) id, null));
+            }
+            return previous;
+        }
+
+        @Override
+        public boolean remove(Object id, Object bus) {
+            boolean removed = super.remove(id, bus);
+            if (removed) {
+                changes.add(new Change(command, (Integer) id, null));
+            }
+            return removed;
+        }
+
+        /**
+         * Applies the changes made by the given command to the shared registry.
+         */
+        private void replay(int command, Map<Integer, Bus> buses) {
+            while (replayed < changes.size() && changes.get(replayed).command == command) {
+                Change change = changes.get(replayed++);
+                if (change.bus == null) {
+                    buses.remove(change.id);
+                } else {
+                    buses.put(change.id, change.bus);
+                }
+            }
+        }
+    }
+
+    /**
+     * The shared registry as seen by the barrier commands. The voyages they add or remove are also added to or
+     * removed from the registry of their shard, so the commands of the following segments see the change.
+     */
+    private final class BarrierRegistry extends AbstractMap<Integer, Bus> {
+        private final Map<Integer, Bus> buses;
+
+        private BarrierRegistry(Map<Integer, Bus> buses) {
+            this.buses = buses;
+        }
+
+        private VoyageRegistry shardRegistry(Object id) {
+            return shards[Math.floorMod((Integer) id, shards.length)].registry;
+        }
+
+        @Override
+        public Bus get(Object id) {
+            return buses.get(id);
+        }
+
+        @Override
+        public boolean containsKey(Object id) {
+            return buses.containsKey(id);
+        }
+
+        @Override
+        public Bus put(Integer id, Bus bus) {
+            shardRegistry(id).put(id, bus);
+            return buses.put(id, bus);
+        }
+
+        @Override
+        public Bus putIfAbsent(Integer id, Bus bus) {
+            Bus previous = buses.putIfAbsent(id, bus);
+            if (previous == null) {
+                shardRegistry(id).put(id, bus);
+            }
+            return previous;
+        }
+
+        @Override
+        public Bus remove(Object id) {
+            Bus previous = buses.remove(id);
+            if (previous != null) {
+                shardRegistry(id).remove(id);
+            }
+            return previous;
+        }
+
+        @Override
+        public boolean remove(Object id, Object bus) {
+            boolean removed = buses.remove(id, bus);
+            if (removed) {
+                shardRegistry(id).remove(id, bus);
+            }
+            return removed;
+        }
+
+        @Override
+        public int size() {
+            return buses.size();
+        }
+
+        @Override
+        public Collection<Bus> values() {
+            return buses.values();
+        }
+
+        @Override
+        public Set<Map.Entry<Integer, Bus>> entrySet() {
+            return buses.entrySet();
+        }
+    }
+
+    /**
+     * A voyage added (bus is the new voyage) or removed (bus is null) by a command.
+     */
+    private static final class Change {
+        private final int command;
+        private final Integer id;
+        private final Bus bus;
+
+        private Change(int command, Integer id, Bus bus) {
+            this.command = command;
+            this.id = id;
+            this.bus = bus;
+        }
+    }
+
+    /**
+     * A growable list of command indexes.
+     */
+    private static final class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int get(int i) {
+            return values[i];
+        }
+
+        private int size() {
+            return size;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Locale;
 import java.nio.file.Files;
@@ -13,7 +15,82 @@ import java.nio.file.Paths;
  * refunding tickets, and canceling voyages.
  */
 public class PlayGround {
+    private final OutputSink output;
+    private final CommandTokenizer tokenizer = new CommandTokenizer();
+    private final StringBuilder seatList = new StringBuilder();
+    private BookingJournal journal;
+    private long journalSequence;
+    private RouteIndex routeIndex = new RouteIndex();
+    private BookingMetrics metrics;
+    private SeatHolds holds = new SeatHolds();
+    private int firstSegment;
+    private int lastSegment;
 
+    /**
+     * Constructor for the PlayGround class.
+     *
+     * @param output The output sink every command result is written to.
+     */
+    public PlayGround(OutputSink output) {
+        this.output = output;
+    }
+
+    /**
+     * Sets the journal the successful state-changing commands are appended to, null for none.
+     *
+     * @param journal The journal.
+     */
+    public void setJournal(BookingJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets the route index SEARCH_VOYAGES uses. PlayGrounds that share a registry must share its index too.
+     *
+     * @param routeIndex The route index.
+     */
+    public void setRouteIndex(RouteIndex routeIndex) {
+        this.routeIndex = routeIndex;
+    }
+
+    /**
+     * Sets the metrics every command is recorded in, null for none.
+     *
+     * @param metrics The metrics.
+     */
+    public void setMetrics(BookingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the seat holds of HOLD_SEATS. PlayGrounds that share a registry must share its holds too.
+     *
+     * @param holds The seat holds.
+     */
+    public void setHolds(SeatHolds holds) {
+        this.holds = holds;
+    }
+
+    /**
+     * @return The seat holds of HOLD_SEATS.
+     */
+    public SeatHolds getHolds() {
+        return holds;
+    }
+
+    /**
+     * @return The route index SEARCH_VOYAGES uses.
+     */
+    public RouteIndex getRouteIndex() {
+        return routeIndex;
+    }
+
+    /**
+     * @return The sequence number of the last command appended to the journal by this PlayGround.
+     */
+    public long getJournalSequence() {
+        return journalSequence;
+    }
 
     /**
      * This method reads the input file line by line and processes each line
@@ -21,10 +98,34 @@ public class PlayGround {
      * specific commands.
      *
      * @param args The command line arguments passed to the program.
-     * @param items The lines read from the input file.
-     * @param buses A HashMap that stores Bus objects identified by their voyage ID.
+     * @param commands The reader that streams the lines of the input file, null if the file could not be opened.
+     * @param buses A Map that stores Bus objects identified by their voyage ID.
      */
-    public void readProcessData(String[] args, String[] items, HashMap<Integer, Bus> buses) {
+    public void readProcessData(String[] args, CommandReader commands, Map<Integer, Bus> buses) {
+        checkFiles(args, commands);
+
+        int loopAmount1 = 0; // Initialize the loop counter
+        while (commands.hasNext()) {
+            String line = commands.next();
+            loopAmount1 += 1;
+            // The lookahead tells whether this is the last command, so the final report can be written
+            boolean lastLine = !commands.hasNext();
+            expireHolds(1);
+            executeCommand(args, line, lastLine, buses);
+        }
+        if(loopAmount1 == 0){
+            finalZReport(args, buses);
+        }
+    }
+
+    /**
+     * This method checks the command line arguments and the input and output files, and terminates the program
+     * with an error message if they cannot be used.
+     *
+     * @param args The command line arguments passed to the program.
+     * @param commands The reader that streams the lines of the input file, null if the file could not be opened.
+     */
+    public void checkFiles(String[] args, CommandReader commands) {
         if (!(args.length == 2)) {
             System.out.println("ERROR: This program works exactly with two command line arguments, the first one is the " +
                     "path to the input file whereas the second one is the path to the output file. Sample usage can be " +
@@ -39,8 +140,7 @@ public class PlayGround {
             System.exit(1);
         }
 
-        String[] inputContent = FileInput.readFile(inputFile, true, true);
-        if (inputContent == null) {
+        if (commands == null) {
             System.out.println("ERROR: This program cannot read from the \""+ inputFile + "\", either this program does " +
                     "not have read permission to read that file or file does not exist. Program is going to terminate!");
             System.exit(1);
@@ -53,224 +153,360 @@ public class PlayGround {
             System.out.println("ERROR: This program cannot write to the \"" + outputFile + "\", please check the permissions to write that directory. Program is going to terminate!");
             System.exit(1);
         }
+    }
 
-        int loopAmount1 = 0; // Initialize the loop counter
-        for (String line : items) {
-            loopAmount1 += 1;
-            String[] parts = line.split("\t");
-            // Check for 'INIT_VOYAGE' command and process it accordingly
-            if (parts[0].contains("INIT_VOYAGE")) {
-                FileOutput.writeToFile(args[1], "COMMAND: " + line, true, true);
-                initVoyage(args, line, buses);
-                // Handle 'Z_REPORT' command with error checking for additional parts
-            } else if (parts[0].contains("Z_REPORT")) {
-                FileOutput.writeToFile(args[1], "COMMAND: " + line, true, true);
-
-                if (parts.length > 1){
-                    FileOutput.writeToFile(args[1], "ERROR: Erroneous usage of \"Z_REPORT\" command!", true, true);
-                    continue;
-                }
-
-                FileOutput.writeToFile(args[1], "Z Report:", true, true);
-                FileOutput.writeToFile(args[1], "----------------", true, true);
-                zReport(args, buses,loopAmount1,items);
-                if(loopAmount1 != items.length){
-                    FileOutput.writeToFile(args[1], "----------------", true, true);
-                } else if (loopAmount1 == items.length) {
-                    FileOutput.writeToFile(args[1], "----------------", true, false);
-                }
-
-            } else if (parts[0].contains("PRINT_VOYAGE")) {
-                FileOutput.writeToFile(args[1], "COMMAND: " + line, true, true);
-                printVoyage(args, parts, buses);
+    /**
+     * This method processes a single command line. It is called by readProcessData for every line of the input
+     * file, and can be called directly by anything else that produces commands one at a time.
+     *
+     * @param args The command line arguments passed to the program.
+     * @param line The command line.
+     * @param lastLine True if this is the last command, in which case the final Z report is written after it.
+     * @param buses A Map that stores Bus objects identified by their voyage ID.
+     * @return 0 if the command succeeded, -1 otherwise.
+     */
+    public int executeCommand(String[] args, String line, boolean lastLine, Map<Integer, Bus> buses) {
+        long start = metrics == null ? 0 : System.nanoTime();
+        if (journal != null && !BookingJournal.fits(line)) {
+            // Refused before it changes anything, since its record could not be recovered
+            output.write("COMMAND: " + line, true);
+            writeError("ERROR: The command is too long to be journaled!");
+            if (lastLine) {
+                finalZReport(args, buses);
+            }
+            record(BookingMetrics.UNKNOWN, start, -1);
+            return -1;
+        }
+        CommandTokenizer command = tokenizer.reset(line);
+        int result = 0;
+        int type;
+        // Check for 'INIT_VOYAGE' command and process it accordingly
+        if (command.fieldEquals(0, "INIT_VOYAGE")) {
+            output.write("COMMAND: " + line, true);
+            type = BookingMetrics.INIT_VOYAGE;
+            result = initVoyage(args, command, buses);
+            // Handle 'Z_REPORT' command with error checking for additional parts
+        } else if (command.fieldEquals(0, "Z_REPORT")) {
+            output.write("COMMAND: " + line, true);
+            type = BookingMetrics.Z_REPORT;
+
+            if (command.fieldCount() > 1){
+                writeError("ERROR: Erroneous usage of \"Z_REPORT\" command!");
+                record(type, start, -1);
+                return -1;
+            }
 
-            } else if (parts[0].contains("SELL_TICKET")) {
-                FileOutput.writeToFile(args[1], "COMMAND: " + line, true, true);
-                sellTicket(args, buses, parts);
+            output.write("Z Report:", true);
+            output.write("----------------", true);
+            zReport(args, buses);
+            if(!lastLine){
+                output.write("----------------", true);
+            } else {
+                output.write("----------------", false);
+            }
 
-            } else if (parts[0].contains("REFUND_TICKET")) {
-                FileOutput.writeToFile(args[1], "COMMAND: " + line, true, true);
-                refundTicket(args, buses, parts);
+        } else if (command.fieldEquals(0, "PRINT_VOYAGE")) {
+            output.write("COMMAND: " + line, true);
+            type = BookingMetrics.PRINT_VOYAGE;
+            result = printVoyage(args, command, buses);
+
+        } else if (command.fieldEquals(0, "SELL_TICKET")) {
+            output.write("COMMAND: " + line, true);
+            type = BookingMetrics.SELL_TICKET;
+            result = sellTicket(args, buses, command);
+
+        } else if (command.fieldEquals(0, "SELL_BEST")) {
+            output.write("COMMAND: " + line, true);
+            type = BookingMetrics.SELL_BEST;
+            result = sellBest(args, buses, command);
+
+        } else if (command.fieldEquals(0, "REFUND_TICKET")) {
+            output.write("COMMAND: " + line, true);
+            type = BookingMetrics.REFUND_TICKET;
+            result = refundTicket(args, buses, command);
+
+        } else if (command.fieldEquals(0, "CANCEL_VOYAGE")) {
+            output.write("COMMAND: " + line, true);
+            type = BookingMetrics.CANCEL_VOYAGE;
+            result = cancelVoyage(args, buses, command);
+
+        } else if (command.fieldEquals(0, "CANCEL_ROUTE")) {
+            output.write("COMMAND: " + line, true);
+            type = BookingMetrics.CANCEL_ROUTE;
+            result = cancelRoute(args, buses, command);
+
+        } else if (command.fieldEquals(0, "SEARCH_VOYAGES")) {
+            output.write("COMMAND: " + line, true);
+            type = BookingMetrics.SEARCH_VOYAGES;
+            result = searchVoyages(args, command, buses);
+
+        } else if (command.fieldEquals(0, "HOLD_SEATS")) {
+            output.write("COMMAND: " + line, true);
+            type = BookingMetrics.HOLD_SEATS;
+            result = holdSeats(args, buses, command);
+
+        } else if (command.fieldEquals(0, "CONFIRM_HOLD")) {
+            output.write("COMMAND: " + line, true);
+            type = BookingMetrics.CONFIRM_HOLD;
+            result = confirmHold(args, buses, command);
+
+        } else if (command.fieldEquals(0, "RELEASE_HOLD")) {
+            output.write("COMMAND: " + line, true);
+            type = BookingMetrics.RELEASE_HOLD;
+            result = releaseHold(args, buses, command);
 
-            } else if (parts[0].contains("CANCEL_VOYAGE")) {
-                FileOutput.writeToFile(args[1], "COMMAND: " + line, true, true);
-                cancelVoyage(args, buses, parts);
+        }
+        else {
+            output.write("COMMAND: " + line, true);
+            type = BookingMetrics.UNKNOWN;
+            writeError("ERROR: There is no command namely " + command.field(0) + "!");
+            result = -1;
+        }
 
-            }
-            else {
-                FileOutput.writeToFile(args[1], "COMMAND: " + line, true, true);
-                FileOutput.writeToFile(args[1], "ERROR: There is no command namely " + parts[0] + "!", true, true);
-            }
+        if(lastLine && !command.fieldEquals(0, "Z_REPORT")){
+            finalZReport(args, buses);
+        }
+        record(type, start, result);
+        return result;
+    }
 
-            if(loopAmount1 == items.length && !parts[0].equals("Z_REPORT")){
-                FileOutput.writeToFile(args[1], "Z Report:", true, true);
-                FileOutput.writeToFile( args[1], "----------------", true, true);
-                zReport(args, buses,loopAmount1,items);
-                FileOutput.writeToFile(args[1], "----------------", true, false);
-            }
+    /**
+     * Records a processed command in the metrics, if there are any.
+     */
+    private void record(int type, long start, int result) {
+        if (metrics != null) {
+            metrics.record(type, System.nanoTime() - start, result != 0);
         }
-        if(items.length == 0){
-            FileOutput.writeToFile(args[1], "Z Report:", true, true);
-            FileOutput.writeToFile( args[1], "----------------", true, true);
-            zReport(args, buses,loopAmount1,items);
-            FileOutput.writeToFile(args[1], "----------------", true, false);
+    }
+
+    /**
+     * Writes an error message of a command and counts it in the metrics, if there are any.
+     *
+     * @param message The error message.
+     */
+    private void writeError(String message) {
+        output.write(message, true);
+        if (metrics != null) {
+            metrics.error(message);
         }
     }
 
+    /**
+     * Answers a command that failed with an exception, for callers that keep running the following commands.
+     *
+     * @param failure The exception the command failed with.
+     */
+    public void writeFailure(RuntimeException failure) {
+        writeError("ERROR: The command failed with " + failure.getClass().getSimpleName() + "!");
+    }
+
+    /**
+     * Writes the Z report that ends the output when the input does not end with a Z_REPORT command.
+     *
+     * @param args The command line arguments passed to the program.
+     * @param buses A Map that stores Bus objects identified by their voyage ID.
+     */
+    public void finalZReport(String[] args, Map<Integer, Bus> buses) {
+        output.write("Z Report:", true);
+        output.write("----------------", true);
+        zReport(args, buses);
+        output.write("----------------", false);
+    }
+
     /**
      * This method processes the INIT_VOYAGE command. It creates a Bus object of the
-     * appropriate type (Minibus, Standard, or Premium) and adds it to the HashMap 'buses'
+     * appropriate type (Minibus, Standard, or Premium) and adds it to the Map 'buses'
      * using the voyage ID as the key. The method also writes messages to the output file
      * indicating the success or failure of the operation and any validation errors encountered.
+     * The fields of the bus type may be followed by the keyword VIA and the intermediate stops in order, one per
+     * field (e.g. "VIA Bolu Düzce"), for a voyage whose seats are sold per segment between two stops.
      *
      * @param args The command line arguments passed to the program (unused in this method).
-     * @param line The line containing the INIT_VOYAGE command and its arguments.
-     * @param buses A HashMap that stores Bus objects identified by their voyage ID.
+     * @param command The tokenized line containing the INIT_VOYAGE command and its arguments.
+     * @param buses A Map that stores Bus objects identified by their voyage ID.
      * @return 0 if the voyage is initialized successfully, -1 otherwise.
      */
-    public int initVoyage(String[] args, String line, HashMap<Integer, Bus> buses) {
+    public int initVoyage(String[] args, CommandTokenizer command, Map<Integer, Bus> buses) {
         //creates an object to every line that included init voyage and add fields to them
         //writes errors about init voyage
-        String[] parts2 = line.split("\t");
-
-        if(parts2.length < 7){
-            FileOutput.writeToFile(args[1], String.format("ERROR: Erroneous usage of \"INIT_VOYAGE\" command!"), true, true);
+        if(command.fieldCount() < 7){
+            writeError(String.format("ERROR: Erroneous usage of \"INIT_VOYAGE\" command!"));
             return -1;
         }
 
-        if(!isNumeric(parts2[2])){
-            FileOutput.writeToFile(args[1], String.format(Locale.US,"ERROR: %s is not a positive integer, ID of a voyage must be a positive integer!", parts2[2]), true, true);
+        long idValue = command.intField(2);
+        if(idValue == CommandTokenizer.NOT_AN_INT){
+            writeError(String.format(Locale.US,"ERROR: %s is not a positive integer, ID of a voyage must be a positive integer!", command.field(2)));
             return -1;
         }
-        int id = Integer.parseInt(parts2[2]);
+        int id = (int) idValue;
         if (id <= 0) {
-            FileOutput.writeToFile(args[1], String.format(Locale.US,"ERROR: %d is not a positive integer, ID of a voyage must be a positive integer!", id), true, true);
+            writeError(String.format(Locale.US,"ERROR: %d is not a positive integer, ID of a voyage must be a positive integer!", id));
             return -1;
         }
-        if (buses.containsKey(id)) {
-            FileOutput.writeToFile(args[1], String.format(Locale.US,"ERROR: There is already a voyage with ID of %d!", id), true, true);
+        if (voyage(buses, id) != null) {
+            writeError(String.format(Locale.US,"ERROR: There is already a voyage with ID of %d!", id));
             return -1;
         }
-        if(!isString(parts2[3])){
-            FileOutput.writeToFile(args[1], String.format("ERROR: %s is not a string, deperture of a voyage must be a string!",parts2[3]), true, true);
+        String from = command.field(3);
+        String to = command.field(4);
+        if(!isString(from)){
+            writeError(String.format("ERROR: %s is not a string, deperture of a voyage must be a string!",from));
             return -1;
         }
-        if(!isString(parts2[4])){
-            FileOutput.writeToFile(args[1], String.format("ERROR: %s is not a string, arrival of a voyage must be a string!",parts2[4]), true, true);
+        if(!isString(to)){
+            writeError(String.format("ERROR: %s is not a string, arrival of a voyage must be a string!",to));
             return -1;
         }
-        String from = parts2[3];
-        String to = parts2[4];
-        if(!isNumeric(parts2[5])){
-            FileOutput.writeToFile(args[1], String.format(Locale.US, "ERROR: %d is not a positive integer, number of seat rows of a voyage must be a positive integer!", parts2[5]), true, true);
+        // The intermediate stops follow the fields of the bus type after the keyword VIA, which is never a number
+        int fields = command.fieldCount();
+        int typeFields = command.fieldEquals(1, "Minibus") ? 7 : command.fieldEquals(1, "Standard") ? 8 : 9;
+        String[] stops = null;
+        String arrival = to;
+        if (fields > typeFields && command.fieldEquals(typeFields, "VIA")) {
+            if (fields == typeFields + 1) {
+                writeError(String.format("ERROR: Erroneous usage of \"INIT_VOYAGE\" command!"));
+                return -1;
+            }
+            stops = new String[fields - typeFields + 1];
+            stops[0] = from;
+            for (int i = typeFields + 1; i < fields; i++) {
+                String stop = command.field(i);
+                if (!isString(stop)) {
+                    writeError(String.format("ERROR: %s is not a string, stop of a voyage must be a string!", stop));
+                    return -1;
+                }
+                stops[i - typeFields] = stop;
+            }
+            stops[stops.length - 1] = to;
+            arrival = to + " via " + String.join(", ", Arrays.asList(stops).subList(1, stops.length - 1));
+            fields = typeFields;
+        }
+        long rowsValue = command.intField(5);
+        if(rowsValue == CommandTokenizer.NOT_AN_INT){
+            writeError(String.format(Locale.US, "ERROR: %s is not a positive integer, number of seat rows of a voyage must be a positive integer!", command.field(5)));
             return -1;
         }
-        int rows = Integer.parseInt(parts2[5]);
+        int rows = (int) rowsValue;
         if (rows <= 0) {
-            FileOutput.writeToFile(args[1], String.format(Locale.US, "ERROR: %d is not a positive integer, number of seat rows of a voyage must be a positive integer!", rows), true, true);
+            writeError(String.format(Locale.US, "ERROR: %d is not a positive integer, number of seat rows of a voyage must be a positive integer!", rows));
             return -1;
         }
-        if(!isDouble(parts2[6])){
-            FileOutput.writeToFile(args[1], String.format(Locale.US,"ERROR: %s is not a positive number, price must be a positive number!", parts2[6]), true, true);
+        long priceBits = command.doubleField(6);
+        if(priceBits == CommandTokenizer.NOT_A_DOUBLE){
+            writeError(String.format(Locale.US,"ERROR: %s is not a positive number, price must be a positive number!", command.field(6)));
             return -1;
         }
-        double price = Double.parseDouble(parts2[6]);
+        double price = Double.longBitsToDouble(priceBits);
         if (price <= 0) {
-            FileOutput.writeToFile(args[1], String.format(Locale.US,"ERROR: %s is not a positive number, price must be a positive number!", parts2[6]), true, true);
+            writeError(String.format(Locale.US,"ERROR: %s is not a positive number, price must be a positive number!", command.field(6)));
             return -1;
         }
 
-        if (parts2[1].equals("Minibus")) {
+        if (command.fieldEquals(1, "Minibus")) {
             Bus minibus = new Minibus(id,from,to,rows,price,0,0,0);
-            buses.put(id, minibus);
-            FileOutput.writeToFile(args[1], String.format(Locale.US,"Voyage %d was initialized as a minibus (2) voyage from %s to %s with %.2f TL priced %d regular seats. Note that minibus tickets are not refundable.", id, from, to, price, minibus.getCapacity()), true, true);
+            if (stops != null) {
+                minibus.setStops(stops);
+            }
+            if (!addVoyage(buses, minibus, command)) {
+                return -1;
+            }
+            output.write(String.format(Locale.US,"Voyage %d was initialized as a minibus (2) voyage from %s to %s with %s TL priced %d regular seats. Note that minibus tickets are not refundable.", id, from, arrival, Bus.formatMicros(minibus.getRegularMicros()), minibus.getCapacity()), true);
 
-        } else if (parts2[1].equals("Standard")) {
-            if(parts2.length < 8 || parts2.length > 8){
-                FileOutput.writeToFile(args[1], String.format("ERROR: Erroneous usage of \"INIT_VOYAGE\" command!"), true, true);
+        } else if (command.fieldEquals(1, "Standard")) {
+            if(fields != 8){
+                writeError(String.format("ERROR: Erroneous usage of \"INIT_VOYAGE\" command!"));
                 return -1;
             }
 
-            if(!isNumeric(parts2[7])){
-                FileOutput.writeToFile(args[1], String.format("ERROR: %s is not an integer, refund cut of voyage must be an integer!",parts2[7]), true, true);
+            long refundCutValue = command.intField(7);
+            if(refundCutValue == CommandTokenizer.NOT_AN_INT){
+                writeError(String.format("ERROR: %s is not an integer, refund cut of voyage must be an integer!",command.field(7)));
                 return -1;
             }
 
-            int refundCut = Integer.parseInt(parts2[7]);
+            int refundCut = (int) refundCutValue;
             if (refundCut < 0 || refundCut > 100) {
-                FileOutput.writeToFile(args[1], String.format(Locale.US,"ERROR: %d is not an integer that is in range of [0, 100], refund cut must be an integer that is in range of [0, 100]!", refundCut), true, true);
+                writeError(String.format(Locale.US,"ERROR: %d is not an integer that is in range of [0, 100], refund cut must be an integer that is in range of [0, 100]!", refundCut));
                 return -1;
             } else {
                 Bus standard = new Standard(id,from,to,rows,price,0,refundCut,0);
-                buses.put(id, standard);
-                FileOutput.writeToFile(args[1], String.format(Locale.US,"Voyage %d was initialized as a standard (2+2) voyage from %s to %s with %.2f TL priced %d regular seats. Note that refunds will be %d%% less than the paid amount.", id, from, to, price, standard.getCapacity(), refundCut), true, true);
+                if (stops != null) {
+                    standard.setStops(stops);
+                }
+                if (!addVoyage(buses, standard, command)) {
+                    return -1;
+                }
+                output.write(String.format(Locale.US,"Voyage %d was initialized as a standard (2+2) voyage from %s to %s with %s TL priced %d regular seats. Note that refunds will be %d%% less than the paid amount.", id, from, arrival, Bus.formatMicros(standard.getRegularMicros()), standard.getCapacity(), refundCut), true);
             }
 
-        } else if (parts2[1].equals("Premium")) {
-            if(parts2.length < 9 || parts2.length > 9){
-                FileOutput.writeToFile(args[1], String.format("ERROR: Erroneous usage of \"INIT_VOYAGE\" command!"), true, true);
+        } else if (command.fieldEquals(1, "Premium")) {
+            if(fields != 9){
+                writeError(String.format("ERROR: Erroneous usage of \"INIT_VOYAGE\" command!"));
                 return -1;
             }
-            if(!isNumeric(parts2[7])){
-                FileOutput.writeToFile(args[1], String.format("ERROR: %s is not an integer, refund cut of voyage must be an integer!",parts2[7]), true, true);
+            long refundCutValue = command.intField(7);
+            if(refundCutValue == CommandTokenizer.NOT_AN_INT){
+                writeError(String.format("ERROR: %s is not an integer, refund cut of voyage must be an integer!",command.field(7)));
                 return -1;
             }
 
-            int refundCut = Integer.parseInt(parts2[7]);
+            int refundCut = (int) refundCutValue;
 
-            if(!isNumeric(parts2[8])){
-                FileOutput.writeToFile(args[1], String.format("ERROR: %s is not an integer, premium fee of voyage must be an integer!", parts2[8]), true, true);
+            long premiumFeeValue = command.intField(8);
+            if(premiumFeeValue == CommandTokenizer.NOT_AN_INT){
+                writeError(String.format("ERROR: %s is not an integer, premium fee of voyage must be an integer!", command.field(8)));
                 return -1;
             }
 
-            int premiumFee = Integer.parseInt(parts2[8]);
+            int premiumFee = (int) premiumFeeValue;
 
             if (refundCut < 0 || refundCut > 100) {
-                FileOutput.writeToFile(args[1], String.format(Locale.US,"ERROR: %d is not an integer that is in range of [0, 100], refund cut must be an integer that is in range of [0, 100]!", refundCut), true, true);
+                writeError(String.format(Locale.US,"ERROR: %d is not an integer that is in range of [0, 100], refund cut must be an integer that is in range of [0, 100]!", refundCut));
             } else if (premiumFee < 0) {
-                FileOutput.writeToFile(args[1], String.format(Locale.US,"ERROR: %d is not a non-negative integer, premium fee must be a non-negative integer!", premiumFee), true, true);
+                writeError(String.format(Locale.US,"ERROR: %d is not a non-negative integer, premium fee must be a non-negative integer!", premiumFee));
             } else {
                 Bus premium = new Premium(id,from,to,rows,price,0,refundCut,premiumFee);
-                buses.put(id, premium);
+                if (stops != null) {
+                    premium.setStops(stops);
+                }
+                if (!addVoyage(buses, premium, command)) {
+                    return -1;
+                }
                 int a = premium.getCapacity() / 3;
-                double premiumPrice = price * (100 + premiumFee) / 100;
-                FileOutput.writeToFile(args[1], String.format(Locale.US,"Voyage %d was initialized as a premium (1+2) voyage from %s to %s with %.2f TL priced %d regular seats and %.2f TL priced %d premium seats. Note that refunds will be %d%% less than the paid amount.", id, from, to, price, 2 * a, premiumPrice, a, refundCut), true, true);
+                output.write(String.format(Locale.US,"Voyage %d was initialized as a premium (1+2) voyage from %s to %s with %s TL priced %d regular seats and %s TL priced %d premium seats. Note that refunds will be %d%% less than the paid amount.", id, from, arrival, Bus.formatMicros(premium.getRegularMicros()), 2 * a, Bus.formatMicros(premium.getPremiumMicros()), a, refundCut), true);
             }
         } else {
-            FileOutput.writeToFile(args[1], String.format("ERROR: Erroneous usage of \"INIT_VOYAGE\" command!"), true, true);
+            writeError(String.format("ERROR: Erroneous usage of \"INIT_VOYAGE\" command!"));
         }
         return 0;
     }
 
     /**
      * This method generates a Z report that summarizes information about all voyages in the system.
-     * The method iterates through the HashMap 'buses' and calls
+     * The method iterates through the Map 'buses' and calls
      * the writeBusPlan() method of each Bus object to display its seat plan.
      *
      * @param args The command line arguments passed to the program (unused in this method).
-     * @param buses A HashMap that stores Bus objects identified by their voyage ID.
-     * @param loopAmount1 This parameter is likely used internally for loop management and can be ignored.
-     * @param items This parameter is likely used internally for loop management and can be ignored.
+     * @param buses A Map that stores Bus objects identified by their voyage ID.
      * @return -1 (The return value of this method seems to have no specific meaning and could be changed to void.)
      */
-    public int zReport(String[] args, HashMap<Integer, Bus> buses,int loopAmount1, String[] items) {
+    public int zReport(String[] args, Map<Integer, Bus> buses) {
         //write all voyages and their voyage id, from-to,bus plan, revenue
 
         if (buses.isEmpty()) {
-            FileOutput.writeToFile(args[1], "No Voyages Available!", true, true);
+            output.write("No Voyages Available!", true);
         }
         else {
-            int loopAmount = 0;
-            for (Map.Entry<Integer, Bus> entry : buses.entrySet()) {
-                loopAmount += 1;
-                Bus bus = entry.getValue();
-                FileOutput.writeToFile(args[1], "Voyage " + bus.getID(), true, true);
-                FileOutput.writeToFile(args[1], bus.getFrom() + "-" + bus.getTo(), true, true);
-                bus.writeBusPlan(args);
-                FileOutput.writeToFile(args[1], "Revenue: " + String.format(Locale.US,"%.2f",bus.getRevenue()), true, true);
-                if(buses.size() > 1 && loopAmount != buses.size()){
-                    FileOutput.writeToFile(args[1], "----------------", true, true);
+            boolean first = true;
+            for (Bus bus : buses.values()) {
+                // The separator goes before every voyage but the first, so it does not depend on the size of a
+                // registry that other channels may be changing
+                if (!first) {
+                    output.write("----------------", true);
                 }
+                first = false;
+                writeVoyage(bus);
             }
         }
         return -1;
@@ -279,46 +515,43 @@ public class PlayGround {
 
     /**
      * This method processes the PRINT_VOYAGE command. It takes the voyage ID from the command arguments
-     * and retrieves the corresponding Bus object from the HashMap 'buses'. If the voyage ID is valid
+     * and retrieves the corresponding Bus object from the Map 'buses'. If the voyage ID is valid
      * and the Bus object exists, the method calls the writeBusPlan() method of the Bus object to display
      * its seat plan. Additionally, it writes details about the voyage, such as ID, origin-destination,
      * and total revenue, to the output file. The method returns 0 if the voyage is found and printed
      * successfully, -1 otherwise.
      *
      * @param args The command line arguments passed to the program.
-     * @param parts The tokens obtained by splitting the command line. parts[0] should be "PRINT_VOYAGE" and parts[1] should be the voyage ID.
-     * @param buses A HashMap that stores Bus objects identified by their voyage ID.
+     * @param command The tokenized command line. Field 0 should be "PRINT_VOYAGE" and field 1 should be the voyage ID.
+     * @param buses A Map that stores Bus objects identified by their voyage ID.
      * @return 0 if the voyage is found and printed successfully, -1 otherwise.
      */
-    public int printVoyage(String[] args, String[] parts, HashMap<Integer, Bus> buses) {
+    public int printVoyage(String[] args, CommandTokenizer command, Map<Integer, Bus> buses) {
 
-        if (parts.length < 2 || parts.length > 2) {
-            FileOutput.writeToFile(args[1], "ERROR: Erroneous usage of \"PRINT_VOYAGE\" command!", true, true);
+        if (command.fieldCount() != 2) {
+            writeError("ERROR: Erroneous usage of \"PRINT_VOYAGE\" command!");
             return -1;
         }
 
-        if(!isNumeric(parts[1])){
-            FileOutput.writeToFile(args[1], "ERROR: " + parts[1] + " is not a positive integer, ID of a voyage must be a positive integer!", true, true);
+        long idValue = command.intField(1);
+        if(idValue == CommandTokenizer.NOT_AN_INT){
+            writeError("ERROR: " + command.field(1) + " is not a positive integer, ID of a voyage must be a positive integer!");
             return -1;
         }
 
-        int id = Integer.parseInt(parts[1]);
+        int id = (int) idValue;
 
         if (id <= 0) {
-            FileOutput.writeToFile(args[1], "ERROR: " + parts[1] + " is not a positive integer, ID of a voyage must be a positive integer!", true, true);
+            writeError("ERROR: " + command.field(1) + " is not a positive integer, ID of a voyage must be a positive integer!");
             return -1;
         }
-         if (!buses.containsKey(id)) {
-            FileOutput.writeToFile(args[1], String.format("ERROR: There is no voyage with ID of %d!", id), true, true);
+        Bus targetBus = voyage(buses, id);
+        if (targetBus == null) {
+            writeError(String.format("ERROR: There is no voyage with ID of %d!", id));
             return -1;
         }
 
-        Bus targetBus = buses.get(id);
-
-        FileOutput.writeToFile(args[1], "Voyage " + targetBus.getID(), true, true);
-        FileOutput.writeToFile(args[1], targetBus.getFrom() + "-" + targetBus.getTo(), true, true);
-        targetBus.writeBusPlan(args);
-        FileOutput.writeToFile(args[1],String.format(Locale.US ,"Revenue: %.2f",targetBus.getRevenue()), true, true);
+        writeVoyage(targetBus);
 
         return 0;
     }
@@ -336,102 +569,201 @@ public class PlayGround {
      * the total price.
 
      * @param args The command-line arguments passed to the program.
-     * @param buses A HashMap containing Bus objects identified by their voyage ID.
-     * @param parts The command line parts, where parts[0] is "SELL_TICKET", parts[1] is the voyage ID, and parts[2]
-     * is a list of seat numbers separated by commas.
+     * @param buses A Map containing Bus objects identified by their voyage ID.
+     * @param command The tokenized command line, where field 0 is "SELL_TICKET", field 1 is the voyage ID, and field 2
+     * is a list of seat numbers separated by underscores. Fields 3 and 4 are optionally the stops the tickets start and
+     * end at, for a part of the route of a voyage with intermediate stops.
      * @return 0 if the tickets are sold successfully; otherwise, -1 if there's an error.
      */
-    public int sellTicket(String[] args, HashMap<Integer, Bus> buses, String[] parts) {
-        if (parts.length < 3 || parts.length > 3) {
-            FileOutput.writeToFile(args[1], "ERROR: Erroneous usage of \"SELL_TICKET\" command!", true, true);
+    public int sellTicket(String[] args, Map<Integer, Bus> buses, CommandTokenizer command) {
+        if (command.fieldCount() != 3 && command.fieldCount() != 5) {
+            writeError("ERROR: Erroneous usage of \"SELL_TICKET\" command!");
             return -1;
         }
-        if(!isNumeric(parts[1])){
-            FileOutput.writeToFile(args[1], String.format(Locale.US,"ERROR: %s is not a positive integer, ID of a voyage must be a positive integer!", parts[1]), true, true);
+        long idValue = command.intField(1);
+        if(idValue == CommandTokenizer.NOT_AN_INT){
+            writeError(String.format(Locale.US,"ERROR: %s is not a positive integer, ID of a voyage must be a positive integer!", command.field(1)));
             return -1;
         }
 
-        int id = Integer.parseInt(parts[1]);
+        int id = (int) idValue;
 
         if(id < 0){
-            FileOutput.writeToFile(args[1], String.format(Locale.US,"ERROR: %d is not a positive integer, ID of a voyage must be a positive integer!", id), true, true);
+            writeError(String.format(Locale.US,"ERROR: %d is not a positive integer, ID of a voyage must be a positive integer!", id));
             return -1;
         }
 
-        if (!buses.containsKey(id)) {
-            FileOutput.writeToFile(args[1], String.format("ERROR: There is no voyage with ID of %s!", parts[1]), true, true);
+        Bus bus = voyage(buses, id);
+        if (bus == null) {
+            writeError(String.format("ERROR: There is no voyage with ID of %s!", command.field(1)));
             return -1;
         }
+        if (!findSegments(bus, command)) {
+            return -1;
+        }
+        int first = firstSegment;
+        int last = lastSegment;
 
-        String[] ticketParts = parts[2].split("_");
-        int loopAmount2 = 0;
-        String ticketsString = "";
-        Bus bus = buses.get(id);
-        boolean[] seats1 = bus.getSeats();
-        double totalPrice = 0;
-
-        for (String ticket : ticketParts) {
-            if(!isNumeric(ticket)){
-                FileOutput.writeToFile(args[1], String.format("ERROR: %d is not a positive integer, seat number must be a positive integer!",ticket), true, true);
+        // The bus is the lock of its voyage, so the whole seat group is checked and sold atomically
+        synchronized (bus) {
+            if (voyage(buses, id) != bus) { //Cancelled by another channel before the lock was taken
+                writeError(String.format("ERROR: There is no voyage with ID of %s!", command.field(1)));
                 return -1;
             }
-
-            int ticket1 = Integer.parseInt(ticket);
-
-            if (ticket1 < 0) {
-                FileOutput.writeToFile(args[1], String.format("ERROR: %d is not a positive integer, seat number must be a positive integer!", ticket1), true, true);
-                return -1;
+            int ticketCount = command.splitField(2, '_');
+            int premiumCount = 0;
+            SeatMap group = new SeatMap(bus.getCapacity());
+
+            for (int k = 0; k < ticketCount; k++) {
+                long ticketValue = command.intSubField(k);
+                int ticket1 = (int) ticketValue;
+
+                if (ticketValue == CommandTokenizer.NOT_AN_INT || ticket1 <= 0 || ticket1 > bus.getCapacity()) {
+                    // A seat earlier in the list that is already sold is reported before this one
+                    if (bus.isSold(group, first, last)) {
+                        writeError("ERROR: One or more seats already sold!");
+                        return -1;
+                    }
+                    if(ticketValue == CommandTokenizer.NOT_AN_INT){
+                        writeError(String.format("ERROR: %s is not a positive integer, seat number must be a positive integer!",command.subField(k)));
+                        return -1;
+                    }
+                    if (ticket1 <= 0) {
+                        writeError(String.format("ERROR: %d is not a positive integer, seat number must be a positive integer!", ticket1));
+                        return -1;
+                    }
+                    writeError("ERROR: There is no such a seat!");
+                    return -1;
+                }
+                group.occupy(ticket1 - 1);
+                if (bus instanceof Premium && ticket1 % 3 == 1) {
+                    premiumCount++;
+                }
             }
-            if (ticket1 > bus.getCapacity()) {
-                FileOutput.writeToFile(args[1], "ERROR: There is no such a seat!", true, true);
+            // The whole group of seats is checked with a single mask test per segment
+            if (bus.isSold(group, first, last)) {
+                writeError("ERROR: One or more seats already sold!");
                 return -1;
             }
-            if (seats1[ticket1 - 1] == true) {
-                FileOutput.writeToFile(args[1], "ERROR: One or more seats already sold!", true, true);
+            SeatMap held = bus.getHeldSeats();
+            if (held != null && held.intersects(group)) {
+                writeError("ERROR: One or more seats are on hold!");
                 return -1;
             }
+            bus.sell(group, first, last);
+            routeIndex.update(bus);
+            journal(BookingJournal.SELL_TICKET, command);
+
+            StringBuilder ticketsString = seatList;
+            ticketsString.setLength(0);
+            for (int k = 0; k < ticketCount; k++) {
+                if (k > 0) {
+                    ticketsString.append('-');
+                }
+                command.appendSubField(k, ticketsString);
+            }
+            long totalPrice = bus.saleMicros(ticketCount - premiumCount, premiumCount, first, last);
+            if (ticketCount > 0) {
+                output.write(String.format(Locale.US,"Seat %s of the Voyage %d from %s to %s was successfully sold for %s TL.", ticketsString, bus.getID(), bus.getStop(first), bus.getStop(last), Bus.formatMicros(totalPrice)), true);
+                bus.addRevenueMicros(totalPrice);
+                if (metrics != null) {
+                    metrics.seatsSold(ticketCount);
+                }
+            }
+            return 0;
         }
-        for (String ticket : ticketParts) {
-            int ticket1 = Integer.parseInt(ticket);
-            loopAmount2 += 1;
+    }
 
-            if (loopAmount2 == ticketParts.length) {
-                ticketsString = ticketsString + ticket;
+    /**
+     * Handles the SELL_BEST command. Instead of a list of seat numbers it takes the number of seats to sell and,
+     * optionally, their class ("Premium" or "Regular", only Premium voyages have premium seats). The seats are picked
+     * by SeatAllocator: adjacent seats in one row if possible, otherwise a run of seats across rows, otherwise the
+     * lowest numbered free seats.
+     *
+     * The sale is written, priced and journaled exactly like a SELL_TICKET of the picked seats, so a recovered journal
+     * does not depend on how the seats were picked.
+     *
+     * @param args The command-line arguments passed to the program.
+     * @param buses A Map containing Bus objects identified by their voyage ID.
+     * @param command The tokenized command line, where field 0 is "SELL_BEST", field 1 is the voyage ID, field 2 is
+     * the number of seats and the optional field 3 is the seat class.
+     * @return 0 if the tickets are sold successfully; otherwise, -1 if there's an error.
+     */
+    public int sellBest(String[] args, Map<Integer, Bus> buses, CommandTokenizer command) {
+        if (command.fieldCount() != 3 && command.fieldCount() != 4) {
+            writeError("ERROR: Erroneous usage of \"SELL_BEST\" command!");
+            return -1;
+        }
+        long idValue = command.intField(1);
+        if (idValue == CommandTokenizer.NOT_AN_INT || idValue <= 0) {
+            writeError(String.format(Locale.US,"ERROR: %s is not a positive integer, ID of a voyage must be a positive integer!", command.field(1)));
+            return -1;
+        }
+        int id = (int) idValue;
+        long countValue = command.intField(2);
+        if (countValue == CommandTokenizer.NOT_AN_INT || countValue <= 0) {
+            writeError(String.format("ERROR: %s is not a positive integer, number of seats must be a positive integer!", command.field(2)));
+            return -1;
+        }
+        int count = (int) countValue;
+        int seatClass = SeatAllocator.ANY;
+        String className = "";
+        if (command.fieldCount() == 4) {
+            if (command.fieldEquals(3, "Premium")) {
+                seatClass = SeatAllocator.PREMIUM;
+                className = "premium ";
+            } else if (command.fieldEquals(3, "Regular")) {
+                seatClass = SeatAllocator.REGULAR;
+                className = "regular ";
             } else {
-                ticketsString = ticketsString + ticket + "-";
+                writeError(String.format("ERROR: %s is not a seat class, seat class must be Premium or Regular!", command.field(3)));
+                return -1;
             }
+        }
 
-            if (bus instanceof Minibus) {
-                seats1[ticket1 - 1] = true;
-                if (loopAmount2 == ticketParts.length) {
-                    FileOutput.writeToFile(args[1], String.format(Locale.US,"Seat %s of the Voyage %d from %s to %s was successfully sold for %.2f TL.", ticketsString, bus.getID(), bus.getFrom(), bus.getTo(), (bus.getPrice() * ticketParts.length)), true, true);
-                    bus.increaseRevenue(bus.getPrice() * ticketParts.length);
-                }
-
-            } else if (bus instanceof Standard) {
-                seats1[ticket1 - 1] = true;
-                if (loopAmount2 == ticketParts.length) {
-                    FileOutput.writeToFile(args[1], String.format(Locale.US,"Seat %s of the Voyage %d from %s to %s was successfully sold for %.2f TL.", ticketsString, bus.getID(), bus.getFrom(), bus.getTo(), (bus.getPrice() * ticketParts.length)), true, true);
-                    bus.increaseRevenue(bus.getPrice() * ticketParts.length);
-                }
-
-            } else if (bus instanceof Premium) {
-                if (ticket1 % 3 == 1) {
-                    double premiumPrice = bus.getPrice() * (bus.getPremiumFee() + 100) / 100;
-                    totalPrice += premiumPrice;
-                } else {
-                    totalPrice += bus.getPrice();
-                }
+        Bus bus = voyage(buses, id);
+        if (bus == null) {
+            writeError(String.format("ERROR: There is no voyage with ID of %d!", id));
+            return -1;
+        }
+        if (seatClass == SeatAllocator.PREMIUM && !(bus instanceof Premium)) {
+            writeError(String.format("ERROR: Voyage %d has no premium seats!", id));
+            return -1;
+        }
 
-                seats1[ticket1 - 1] = true;
-                if (loopAmount2 == ticketParts.length) {
-                    FileOutput.writeToFile(args[1], String.format(Locale.US,"Seat %s of the Voyage %d from %s to %s was successfully sold for %.2f TL.", ticketsString, bus.getID(), bus.getFrom(), bus.getTo(), totalPrice), true, true);
-                    bus.increaseRevenue(totalPrice);
+        // The bus is the lock of its voyage, so no other channel can take the seats between picking and selling them
+        synchronized (bus) {
+            if (voyage(buses, id) != bus) { //Cancelled by another channel before the lock was taken
+                writeError(String.format("ERROR: There is no voyage with ID of %d!", id));
+                return -1;
+            }
+            SeatMap group = new SeatMap(bus.getCapacity());
+            if (count > bus.freeSeats() || !SeatAllocator.allocate(bus, seatClass, count, group)) {
+                writeError(String.format("ERROR: There are not enough free %sseats on the Voyage %d!", className, id));
+                return -1;
+            }
+            bus.sell(group, 0, bus.getSegmentCount());
+            routeIndex.update(bus);
+
+            StringBuilder ticketsString = seatList;
+            ticketsString.setLength(0);
+            for (int k = 0, index = group.nextOccupied(0); k < count; k++, index = group.nextOccupied(index + 1)) {
+                if (k > 0) {
+                    ticketsString.append('_');
                 }
+                ticketsString.append(index + 1);
             }
-
+            journal(BookingJournal.SELL_TICKET, "SELL_TICKET\t" + id + "\t" + ticketsString);
+
+            int premiumCount = bus.premiumSeats(group);
+            long totalPrice = bus.saleMicros(count - premiumCount, premiumCount);
+            output.write(String.format(Locale.US,"Seat %s of the Voyage %d from %s to %s was successfully sold for %s TL.", ticketsString.toString().replace('_', '-'), bus.getID(), bus.getFrom(), bus.getTo(), Bus.formatMicros(totalPrice)), true);
+            bus.addRevenueMicros(totalPrice);
+            if (metrics != null) {
+                metrics.seatsSold(count);
+            }
+            return 0;
         }
-        return 0;
     }
 
     /**
@@ -447,205 +779,630 @@ public class PlayGround {
      * message is logged after completion.
 
      * @param args The command-line arguments passed to the program.
-     * @param buses A HashMap of Bus objects indexed by their voyage ID.
-     * @param parts The command line parts where parts[0] is "REFUND_TICKET", parts[1] is the voyage ID,
-     * and parts[2] is a list of seat numbers separated by underscores.
+     * @param buses A Map of Bus objects indexed by their voyage ID.
+     * @param command The tokenized command line where field 0 is "REFUND_TICKET", field 1 is the voyage ID,
+     * and field 2 is a list of seat numbers separated by underscores. Fields 3 and 4 are optionally the stops the
+     * tickets start and end at, as in SELL_TICKET.
      * @return Returns 0 if the refund is successful; otherwise, it returns -1.
      */
 
-    public int refundTicket(String[] args, HashMap<Integer, Bus> buses, String[] parts) {
-        if (parts.length > 3 || parts.length < 3){
-            FileOutput.writeToFile(args[1], String.format("ERROR: Erroneous usage of \"REFUND_TICKET\" command!"), true, true);
+    public int refundTicket(String[] args, Map<Integer, Bus> buses, CommandTokenizer command) {
+        if (command.fieldCount() != 3 && command.fieldCount() != 5){
+            writeError(String.format("ERROR: Erroneous usage of \"REFUND_TICKET\" command!"));
             return -1;
         }
-        if(!isNumeric(parts[1])){
-            FileOutput.writeToFile(args[1], String.format(Locale.US,"ERROR: %s is not a positive integer, ID of a voyage must be a positive integer!", parts[1]), true, true);
+        long idValue = command.intField(1);
+        if(idValue == CommandTokenizer.NOT_AN_INT){
+            writeError(String.format(Locale.US,"ERROR: %s is not a positive integer, ID of a voyage must be a positive integer!", command.field(1)));
             return -1;
         }
-        int id = Integer.parseInt(parts[1]);
+        int id = (int) idValue;
 
         if(id < 0){
-            FileOutput.writeToFile(args[1], String.format(Locale.US,"ERROR: %d is not a positive integer, ID of a voyage must be a positive integer!", id), true, true);
+            writeError(String.format(Locale.US,"ERROR: %d is not a positive integer, ID of a voyage must be a positive integer!", id));
             return -1;
         }
 
-        String[] tickets = parts[2].split("_");
-        Bus bus = buses.get(id);
+        int ticketCount = command.splitField(2, '_');
+        Bus bus = voyage(buses, id);
 
 
-        if (!buses.containsKey(id)) {
-            FileOutput.writeToFile(args[1], String.format("ERROR: There is no voyage with ID of %s!", parts[1]), true, true);
+        if (bus == null) {
+            writeError(String.format("ERROR: There is no voyage with ID of %s!", command.field(1)));
             return -1;
         }
 
         if(bus instanceof Minibus){
-            FileOutput.writeToFile(args[1],"ERROR: Minibus tickets are not refundable!\n", true, true);
+            writeError("ERROR: Minibus tickets are not refundable!\n");
             return -1;
         }
+        if (!findSegments(bus, command)) {
+            return -1;
+        }
+        int first = firstSegment;
+        int last = lastSegment;
 
-        boolean[] seats = bus.getSeats();
-        int loopAmount3 = 0;
-        double totalAmount = 0;
-        String seatString = "";
-
-        for (String ticket : tickets) {
-            if(!isNumeric(ticket)){
-                FileOutput.writeToFile(args[1], String.format("ERROR: %s is not a positive integer, seat number must be a positive integer!", ticket), true, true);
+        // The bus is the lock of its voyage, so the whole seat group is checked and refunded atomically
+        synchronized (bus) {
+            if (voyage(buses, id) != bus) { //Cancelled by another channel before the lock was taken
+                writeError(String.format("ERROR: There is no voyage with ID of %s!", command.field(1)));
                 return -1;
             }
-            int ticket1 = Integer.parseInt(ticket);
-            loopAmount3 += 1;
 
-            if (ticket1 < 0) {
-                FileOutput.writeToFile(args[1], String.format("ERROR: %d is not a positive integer, seat number must be a positive integer!", ticket1), true, true);
-                return -1;
+            SeatMap group = new SeatMap(bus.getCapacity());
+            int premiumCount = 0;
+
+            for (int k = 0; k < ticketCount; k++) {
+                long ticketValue = command.intSubField(k);
+                int ticket1 = (int) ticketValue;
+
+                if (ticketValue == CommandTokenizer.NOT_AN_INT || ticket1 <= 0 || bus.getCapacity() < ticket1) {
+                    // A seat earlier in the list that is already empty is reported before this one
+                    if (!bus.isSoldAll(group, first, last)) {
+                        writeError("ERROR: One or more seats are already empty!");
+                        return -1;
+                    }
+                    if(ticketValue == CommandTokenizer.NOT_AN_INT){
+                        writeError(String.format("ERROR: %s is not a positive integer, seat number must be a positive integer!", command.subField(k)));
+                        return -1;
+                    }
+                    if (ticket1 <= 0) {
+                        writeError(String.format("ERROR: %d is not a positive integer, seat number must be a positive integer!", ticket1));
+                        return -1;
+                    }
+                    writeError("ERROR: There is no such a seat!");
+                    return -1;
+                }
+                group.occupy(ticket1 - 1);
+                if (bus instanceof Premium && ticket1 % 3 == 1) {
+                    premiumCount++;
+                }
             }
-
-            if (bus.getCapacity() < ticket1) {
-                FileOutput.writeToFile(args[1], "ERROR: There is no such a seat!", true, true);
+            // The whole group of seats is checked with a single mask test per segment
+            if (!bus.isSoldAll(group, first, last)) {
+                writeError("ERROR: One or more seats are already empty!");
                 return -1;
             }
-
-            if (seats[ticket1 - 1] == false) {
-                FileOutput.writeToFile(args[1], "ERROR: One or more seats are already empty!", true, true);
-                return -1;
+            bus.refund(group, first, last);
+            routeIndex.update(bus);
+            journal(BookingJournal.REFUND_TICKET, command);
+
+            StringBuilder seatString = seatList;
+            seatString.setLength(0);
+            for (int k = 0; k < ticketCount; k++) {
+                if (k > 0) {
+                    seatString.append('-');
+                }
+                command.appendSubField(k, seatString);
             }
+            long totalAmount = bus.refundMicros(ticketCount - premiumCount, premiumCount, first, last);
+            output.write(String.format(Locale.US,"Seat %s of the Voyage %d from %s to %s was successfully refunded for %s TL.", seatString, bus.getID(), bus.getStop(first), bus.getStop(last), Bus.formatMicros(totalAmount)), true);
+            bus.addRevenueMicros(-totalAmount);
+            if (metrics != null) {
+                metrics.seatsRefunded(ticketCount);
+            }
+            return 0;
         }
-        int loopAmount2 = 0;
+    }
 
-        for (String ticket : tickets) {
-            int ticket1 = Integer.parseInt(ticket);
-            loopAmount2 += 1;
+    /**
+     * This method handles the "CANCEL_VOYAGE" command. It checks if the voyage ID is a positive integer and
+     * whether it exists in the given Map of buses. If these conditions aren't met, an error message is
+     * written to the output file.
 
-            if (loopAmount2 == tickets.length) {
-                seatString = seatString + ticket;
-            } else {
-                seatString = seatString + ticket + "-";
-            }
+     * If the voyage ID is valid, the method cancels the voyage by removing it from the Map and writes a
+     * success message to the output file. It also adjusts the revenue based on the bus type and the number
+     * of tickets that were sold before cancellation.
 
-            if (bus instanceof Standard) {
+     * @param args The command-line arguments passed to the program.
+     * @param buses A Map of Bus objects identified by their voyage ID.
+     * @param command The tokenized command line where field 0 is "CANCEL_VOYAGE" and field 1 is the voyage ID.
+     * @return Returns 0 if the voyage is successfully cancelled, or -1 if there's an error.
+     */
+    public int cancelVoyage(String[] args, Map<Integer, Bus> buses, CommandTokenizer command) {
+        if(command.fieldCount() != 2){
+            writeError(String.format("ERROR: Erroneous usage of \"CANCEL_VOYAGE\" command!"));
+            return -1;
+        }
 
-                double refundCost = bus.getPrice() - (bus.getRefundCut() * bus.getPrice() / 100);
+        long idValue = command.intField(1);
+        if(idValue == CommandTokenizer.NOT_AN_INT){
+            writeError(String.format("ERROR: %s is not a positive integer, ID of a voyage must be a positive integer!", command.field(1)));
+            return -1;
+        }
+        int id = (int) idValue;
+        if (id <= 0) {
+            writeError(String.format("ERROR: %d is not a positive integer, ID of a voyage must be a positive integer!", id));
+            return -1;
+        }
+        Bus bus = voyage(buses, id);
+        if (bus == null) {
+            writeError(String.format("ERROR: There is no voyage with ID of %d!", id));
+            return -1;
+        }
 
-                seats[ticket1 - 1] = false;
-                totalAmount = refundCost * tickets.length;
+        // Sales and refunds on the voyage wait until it is removed and its refunds are computed
+        synchronized (bus) {
+            if (voyage(buses, id) != bus) { //Cancelled by another channel before the lock was taken
+                writeError(String.format("ERROR: There is no voyage with ID of %d!", id));
+                return -1;
             }
-            else if (bus instanceof Premium) {
-                if (ticket1 % 3 == 1) {
-                    double premiumCost = bus.getPrice() * (bus.getPremiumFee() + 100) / 100;
-                    double refundPremium = premiumCost - (premiumCost * bus.getRefundCut() / 100);
-                    totalAmount += refundPremium;
+            // Recorded before the removal, so a new voyage with the same ID is always journaled after it
+            journal(BookingJournal.CANCEL_VOYAGE, command);
+            buses.remove(id, bus);
+            routeIndex.remove(bus);
+            output.write(String.format("Voyage %d was successfully cancelled!", id), true);
+            output.write("Voyage details can be found below:", true);
+            output.write("Voyage " + id , true);
+            output.write(bus.getRoute(), true);
+            bus.writeBusPlan(output);
+            refundSoldSeats(bus);
+
+            output.write("Revenue: " + Bus.formatMicros(bus.getRevenueMicros()), true);
+            return 0;
+        }
+    }
 
-                } else {
-                    double refundStandard = bus.getPrice() - (bus.getPrice() * bus.getRefundCut() / 100);
-                    totalAmount += refundStandard;
+    /**
+     * Processes the CANCEL_ROUTE command, which cancels every voyage from the given departure to the given arrival,
+     * e.g. when a road is closed. The voyages are found through the route index and cancelled in order of their IDs,
+     * each like a CANCEL_VOYAGE (it is also journaled as one), but only one line with the refunded amount and the
+     * remaining revenue is written per voyage instead of its seat plan.
+     *
+     * @param args The command-line arguments passed to the program.
+     * @param buses A Map of Bus objects identified by their voyage ID.
+     * @param command The tokenized command line where field 0 is "CANCEL_ROUTE", field 1 is the departure and field 2
+     * is the arrival.
+     * @return Returns 0 if at least one voyage was cancelled, or -1 if there's an error.
+     */
+    public int cancelRoute(String[] args, Map<Integer, Bus> buses, CommandTokenizer command) {
+        if (command.fieldCount() != 3) {
+            writeError("ERROR: Erroneous usage of \"CANCEL_ROUTE\" command!");
+            return -1;
+        }
+        String from = command.field(1);
+        String to = command.field(2);
+        int fromCode = CityDictionary.SHARED.find(from);
+        int toCode = CityDictionary.SHARED.find(to);
+        List<Bus> voyages = fromCode >= 0 && toCode >= 0
+                ? routeIndex.voyages(buses, fromCode, toCode) : Collections.<Bus>emptyList();
+
+        int cancelled = 0;
+        long refunded = 0;
+        for (Bus bus : voyages) {
+            synchronized (bus) {
+                if (voyage(buses, bus.getID()) != bus) { //Cancelled by another channel before the lock was taken
+                    continue;
                 }
-
-                seats[ticket1 - 1] = false;
-
+                journal(BookingJournal.CANCEL_VOYAGE, "CANCEL_VOYAGE\t" + bus.getID());
+                buses.remove(bus.getID(), bus);
+                routeIndex.remove(bus);
+                long refund = refundSoldSeats(bus);
+                output.write("Voyage " + bus.getID() + " was successfully cancelled, " + Bus.formatMicros(refund)
+                        + " TL refunded. Revenue: " + Bus.formatMicros(bus.getRevenueMicros()), true);
+                cancelled++;
+                refunded += refund;
             }
         }
-        FileOutput.writeToFile(args[1], String.format(Locale.US,"Seat %s of the Voyage %d from %s to %s was successfully refunded for %.2f TL.", seatString, bus.getID(), bus.getFrom(), bus.getTo(), totalAmount), true, true);
-        bus.decreaseRevenue(totalAmount);
+        if (cancelled == 0) {
+            writeError(String.format("ERROR: There is no voyage from %s to %s!", from, to));
+            return -1;
+        }
+        output.write(String.format(Locale.US, "%d voyages from %s to %s were successfully cancelled, %s TL refunded in total.", cancelled, from, to, Bus.formatMicros(refunded)), true);
         return 0;
     }
 
     /**
-     * This method handles the "CANCEL_VOYAGE" command. It checks if the voyage ID is a positive integer and
-     * whether it exists in the given HashMap of buses. If these conditions aren't met, an error message is
-     * written to the output file.
-
-     * If the voyage ID is valid, the method cancels the voyage by removing it from the HashMap and writes a
-     * success message to the output file. It also adjusts the revenue based on the bus type and the number
-     * of tickets that were sold before cancellation.
+     * Processes the SEARCH_VOYAGES command. It lists the voyages from the given departure to the given arrival that
+     * have at least the given number of free seats, those with the most free seats first and then in order of their
+     * IDs. The voyages are found through the route index, so neither the other routes nor any seat plan is visited.
+     *
+     * @param args The command-line arguments passed to the program.
+     * @param command The tokenized command line where field 0 is "SEARCH_VOYAGES", field 1 is the departure, field 2
+     * is the arrival and field 3 is the number of seats.
+     * @param buses A Map of Bus objects identified by their voyage ID.
+     * @return Returns 0 if the search could be made, even if it found nothing, or -1 if the command is invalid.
+     */
+    public int searchVoyages(String[] args, CommandTokenizer command, Map<Integer, Bus> buses) {
+        if (command.fieldCount() != 4) {
+            writeError("ERROR: Erroneous usage of \"SEARCH_VOYAGES\" command!");
+            return -1;
+        }
+        String from = command.field(1);
+        String to = command.field(2);
+        long seatsValue = command.intField(3);
+        if (seatsValue == CommandTokenizer.NOT_AN_INT || seatsValue <= 0) {
+            writeError(String.format("ERROR: %s is not a positive integer, number of seats must be a positive integer!", command.field(3)));
+            return -1;
+        }
+        int seats = (int) seatsValue;
+
+        // A city that is in no voyage has no code, and no voyage can be found for it
+        int fromCode = CityDictionary.SHARED.find(from);
+        int toCode = CityDictionary.SHARED.find(to);
+        if (fromCode >= 0 && toCode >= 0) {
+            List<RouteIndex.Match> matches = routeIndex.search(buses, fromCode, toCode, seats);
+            if (!matches.isEmpty()) {
+                for (RouteIndex.Match match : matches) {
+                    output.write(String.format(Locale.US, "Voyage %d from %s to %s has %d free seats.", match.getBus().getID(), from, to, match.getFreeSeats()), true);
+                }
+                return 0;
+            }
+        }
+        output.write(String.format(Locale.US, "No Voyages Available from %s to %s with at least %d free seats!", from, to, seats), true);
+        return 0;
+    }
 
+    /**
+     * Processes the HOLD_SEATS command. It puts the given seats of a voyage on hold for the given number of seconds,
+     * so a customer can pay for them with CONFIRM_HOLD or give them back with RELEASE_HOLD. Held seats cannot be sold
+     * or held by anybody else and are given back by themselves when the hold expires. A hold is not journaled, so
+     * it does not outlive the run.
+     *
      * @param args The command-line arguments passed to the program.
-     * @param buses A HashMap of Bus objects identified by their voyage ID.
-     * @param parts The command line parts where parts[0] is "CANCEL_VOYAGE" and parts[1] is the voyage ID.
-     * @return Returns 0 if the voyage is successfully cancelled, or -1 if there's an error.
+     * @param buses A Map containing Bus objects identified by their voyage ID.
+     * @param command The tokenized command line, where field 0 is "HOLD_SEATS", field 1 is the voyage ID, field 2 is
+     * a list of seat numbers separated by underscores and field 3 is the time to live of the hold in seconds.
+     * @return 0 if the seats are held; otherwise, -1 if there's an error.
      */
-    public int cancelVoyage(String[] args, HashMap<Integer, Bus> buses, String[] parts) {
-        if(parts.length > 2 || parts.length < 2){
-            FileOutput.writeToFile(args[1], String.format("ERROR: Erroneous usage of \"CANCEL_VOYAGE\" command!"), true, true);
+    public int holdSeats(String[] args, Map<Integer, Bus> buses, CommandTokenizer command) {
+        if (command.fieldCount() != 4) {
+            writeError("ERROR: Erroneous usage of \"HOLD_SEATS\" command!");
+            return -1;
+        }
+        long idValue = command.intField(1);
+        if (idValue == CommandTokenizer.NOT_AN_INT || idValue <= 0) {
+            writeError(String.format(Locale.US,"ERROR: %s is not a positive integer, ID of a voyage must be a positive integer!", command.field(1)));
+            return -1;
+        }
+        int id = (int) idValue;
+        long ttlValue = command.intField(3);
+        if (ttlValue == CommandTokenizer.NOT_AN_INT || ttlValue <= 0) {
+            writeError(String.format("ERROR: %s is not a positive integer, hold time must be a positive integer!", command.field(3)));
             return -1;
         }
 
-        if(!isNumeric(parts[1])){
-            FileOutput.writeToFile(args[1], String.format("ERROR: %s is not a positive integer, ID of a voyage must be a positive integer!", parts[1]), true, true);
+        Bus bus = voyage(buses, id);
+        if (bus == null) {
+            writeError(String.format("ERROR: There is no voyage with ID of %d!", id));
+            return -1;
+        }
 
+        // The bus is the lock of its voyage, so the seats are checked and held atomically
+        synchronized (bus) {
+            if (voyage(buses, id) != bus) { //Cancelled by another channel before the lock was taken
+                writeError(String.format("ERROR: There is no voyage with ID of %d!", id));
+                return -1;
+            }
+            int ticketCount = command.splitField(2, '_');
+            SeatMap group = new SeatMap(bus.getCapacity());
+            for (int k = 0; k < ticketCount; k++) {
+                long ticket = command.intSubField(k);
+                if (ticket == CommandTokenizer.NOT_AN_INT || ticket <= 0) {
+                    writeError(String.format("ERROR: %s is not a positive integer, seat number must be a positive integer!", command.subField(k)));
+                    return -1;
+                }
+                if (ticket > bus.getCapacity()) {
+                    writeError("ERROR: There is no such a seat!");
+                    return -1;
+                }
+                group.occupy((int) ticket - 1);
+            }
+            if (bus.getSeats().intersects(group)) {
+                writeError("ERROR: One or more seats already sold!");
+                return -1;
+            }
+            SeatMap held = bus.getHeldSeats();
+            if (held != null && held.intersects(group)) {
+                writeError("ERROR: One or more seats are on hold!");
+                return -1;
+            }
+            bus.holdSeats().occupyAll(group);
+            routeIndex.update(bus);
+            SeatHolds.Hold hold = holds.add(bus, group, (int) ttlValue);
+
+            output.write(String.format(Locale.US,"Seat %s of the Voyage %d from %s to %s was held for %d seconds with hold ID %d.", seatString(group, '-'), bus.getID(), bus.getFrom(), bus.getTo(), hold.getTtl(), hold.getId()), true);
+            return 0;
         }
-        int id = Integer.parseInt(parts[1]);
-        if (id <= 0) {
-            FileOutput.writeToFile(args[1], String.format("ERROR: %d is not a positive integer, ID of a voyage must be a positive integer!", id), true, true);
+    }
+
+    /**
+     * Processes the CONFIRM_HOLD command. The seats of the hold are sold, priced, journaled and written exactly like
+     * a SELL_TICKET of the same seats.
+     *
+     * @param args The command-line arguments passed to the program.
+     * @param buses A Map containing Bus objects identified by their voyage ID.
+     * @param command The tokenized command line, where field 0 is "CONFIRM_HOLD" and field 1 is the hold ID.
+     * @return 0 if the seats are sold; otherwise, -1 if there's an error.
+     */
+    public int confirmHold(String[] args, Map<Integer, Bus> buses, CommandTokenizer command) {
+        SeatHolds.Hold hold = findHold(command, "CONFIRM_HOLD");
+        if (hold == null) {
             return -1;
         }
-        if (!buses.containsKey(id)) {
-            FileOutput.writeToFile(args[1], String.format("ERROR: There is no voyage with ID of %d!", id), true, true);
+        Bus bus = hold.getBus();
+        // The hold is taken and its seats sold under one hold of the lock, so no other command gets in between
+        synchronized (bus) {
+            if (!removeHold(buses, hold)) {
+                return -1;
+            }
+            SeatMap group = hold.getSeats();
+            if (bus.isSold(group, 0, bus.getSegmentCount())) {
+                writeError("ERROR: One or more seats already sold!");
+                return -1;
+            }
+            int count = group.occupiedCount();
+            bus.sell(group, 0, bus.getSegmentCount());
+            routeIndex.update(bus);
+            journal(BookingJournal.SELL_TICKET, "SELL_TICKET\t" + bus.getID() + "\t" + seatString(group, '_'));
+
+            int premiumCount = bus.premiumSeats(group);
+            long totalPrice = bus.saleMicros(count - premiumCount, premiumCount);
+            output.write(String.format(Locale.US,"Seat %s of the Voyage %d from %s to %s was successfully sold for %s TL.", seatString(group, '-'), bus.getID(), bus.getFrom(), bus.getTo(), Bus.formatMicros(totalPrice)), true);
+            bus.addRevenueMicros(totalPrice);
+            if (metrics != null) {
+                metrics.seatsSold(count);
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Processes the RELEASE_HOLD command. The seats of the hold become free again, with no effect on the revenue.
+     *
+     * @param args The command-line arguments passed to the program.
+     * @param buses A Map containing Bus objects identified by their voyage ID.
+     * @param command The tokenized command line, where field 0 is "RELEASE_HOLD" and field 1 is the hold ID.
+     * @return 0 if the seats are released; otherwise, -1 if there's an error.
+     */
+    public int releaseHold(String[] args, Map<Integer, Bus> buses, CommandTokenizer command) {
+        SeatHolds.Hold hold = findHold(command, "RELEASE_HOLD");
+        if (hold == null) {
             return -1;
         }
+        Bus bus = hold.getBus();
+        synchronized (bus) {
+            if (!removeHold(buses, hold)) {
+                return -1;
+            }
+        }
+        output.write(String.format(Locale.US,"Hold %d on seat %s of the Voyage %d from %s to %s was released.", hold.getId(), seatString(hold.getSeats(), '-'), bus.getID(), bus.getFrom(), bus.getTo()), true);
+        return 0;
+    }
 
-        Bus bus = buses.get(id);
-        buses.remove(id);
-        FileOutput.writeToFile(args[1], String.format("Voyage %d was successfully cancelled!", id), true, true);
-        FileOutput.writeToFile(args[1], "Voyage details can be found below:", true, true);
-        FileOutput.writeToFile(args[1], "Voyage " + id , true, true);
-        FileOutput.writeToFile(args[1], bus.getFrom() + "-" + bus.getTo(), true, true);
-        bus.writeBusPlan(args);
+    /**
+     * Validates the hold ID of CONFIRM_HOLD or RELEASE_HOLD and finds the hold. The hold is not removed yet; the caller
+     * does that with removeHold under the lock of its voyage.
+     *
+     * @return The hold, or null if there is no such hold, in which case the error has been written.
+     */
+    private SeatHolds.Hold findHold(CommandTokenizer command, String name) {
+        if (command.fieldCount() != 2) {
+            writeError("ERROR: Erroneous usage of \"" + name + "\" command!");
+            return null;
+        }
+        long holdId = command.intField(1);
+        if (holdId == CommandTokenizer.NOT_AN_INT || holdId <= 0) {
+            writeError(String.format("ERROR: %s is not a positive integer, ID of a hold must be a positive integer!", command.field(1)));
+            return null;
+        }
+        SeatHolds.Hold hold = holds.get(holdId);
+        if (hold == null) {
+            writeError(String.format("ERROR: There is no hold with ID of %d!", holdId));
+            return null;
+        }
+        return hold;
+    }
+
+    /**
+     * Removes a hold and takes its seats off hold. A hold that expired, was already confirmed or released in the
+     * meantime, or whose voyage was cancelled does not exist any more.
+     *
+     * @param buses A Map containing Bus objects identified by their voyage ID.
+     * @param hold The hold, whose voyage is locked by the caller.
+     * @return True if the hold was removed; otherwise the error has been written.
+     */
+    private boolean removeHold(Map<Integer, Bus> buses, SeatHolds.Hold hold) {
+        Bus bus = hold.getBus();
+        // Whoever removes the hold first, this command or its expiry, gives the seats back
+        if (!holds.remove(hold)) {
+            writeError(String.format("ERROR: There is no hold with ID of %d!", hold.getId()));
+            return false;
+        }
+        bus.getHeldSeats().releaseAll(hold.getSeats());
+        routeIndex.update(bus);
+        if (voyage(buses, bus.getID()) != bus) { //The voyage was cancelled, and its holds with it
+            writeError(String.format("ERROR: There is no hold with ID of %d!", hold.getId()));
+            return false;
+        }
+        return true;
+    }
 
-        int ticketAmount = 0;
-        boolean[] seats = bus.getSeats();
-        for (boolean seat : seats){
-            if(seat == true){
-                ticketAmount += 1;
+    /**
+     * Advances the clock of the holds by the commands that are about to run and gives back the seats of the holds
+     * that have expired since the previous command. It is called before a command by whatever runs the commands,
+     * never by executeCommand, since it locks the voyages of the expired holds and must not run while the caller
+     * holds the lock of another voyage.
+     *
+     * @param commands The number of commands that are about to run.
+     */
+    public void expireHolds(int commands) {
+        holds.advance(commands);
+        releaseHolds(holds.expire());
+    }
+
+    /**
+     * Gives back the seats of holds that have been taken out of the seat holds by SeatHolds.expire.
+     *
+     * @param expired The expired holds.
+     */
+    public void releaseHolds(List<SeatHolds.Hold> expired) {
+        for (SeatHolds.Hold hold : expired) {
+            Bus bus = hold.getBus();
+            synchronized (bus) {
+                bus.getHeldSeats().releaseAll(hold.getSeats());
+                routeIndex.update(bus);
             }
         }
+    }
 
-        if (bus instanceof Minibus){
-            bus.decreaseRevenue(ticketAmount * bus.getPrice());
+    /**
+     * @return The seat numbers of a seat group in ascending order, joined with the given separator.
+     */
+    private String seatString(SeatMap group, char separator) {
+        StringBuilder seatString = seatList;
+        seatString.setLength(0);
+        for (int index = group.nextOccupied(0); index >= 0; index = group.nextOccupied(index + 1)) {
+            if (seatString.length() > 0) {
+                seatString.append(separator);
+            }
+            seatString.append(index + 1);
         }
-        else if (bus instanceof Standard ) {
-            bus.decreaseRevenue(ticketAmount * bus.getPrice());
+        return seatString.toString();
+    }
 
+    /**
+     * Finds the segments a SELL_TICKET or REFUND_TICKET is for. Fields 3 and 4, if given, are the stops the tickets
+     * start and end at; otherwise the tickets are for the whole route. The segments are kept in firstSegment and
+     * lastSegment (the segment after the last one).
+     *
+     * @param bus The voyage.
+     * @param command The tokenized command line.
+     * @return True if the voyage goes from the origin to the destination; otherwise the error has been written.
+     */
+    private boolean findSegments(Bus bus, CommandTokenizer command) {
+        if (command.fieldCount() < 5) {
+            firstSegment = 0;
+            lastSegment = bus.getSegmentCount();
+            return true;
         }
-        else {
-            int i = 1;
-            for (boolean seat : seats){
-                if( seat == true && i % 3 == 1){
-                    //premium koltuk
-                    bus.decreaseRevenue(bus.getPrice()* (bus.getPremiumFee() + 100) / 100);
-                }
-                else if(seat == true && i % 3 != 1){
-                    bus.decreaseRevenue(bus.getPrice());
-                }
-                i+=1;
+        String origin = command.field(3);
+        String destination = command.field(4);
+        int first = bus.findStop(origin, 0);
+        int last = first < 0 ? -1 : bus.findStop(destination, first + 1);
+        if (last < 0) {
+            writeError(String.format("ERROR: Voyage %d does not go from %s to %s!", bus.getID(), origin, destination));
+            return false;
+        }
+        firstSegment = first;
+        lastSegment = last;
+        return true;
+    }
+
+    /**
+     * Pays back every sold seat of a cancelled voyage in full, premium seats with their fee. The seats of each class
+     * are counted with popcounts over the occupancy words of the voyage, or of each of its segments, so the refund is
+     * one multiplication per class and segment.
+     *
+     * @param bus The cancelled voyage, locked by the caller.
+     * @return The refunded amount in micros.
+     */
+    private long refundSoldSeats(Bus bus) {
+        int ticketAmount = bus.getSeats().occupiedCount();
+        long refund = bus.soldMicros();
+        bus.addRevenueMicros(-refund);
+        if (metrics != null) {
+            metrics.seatsRefunded(ticketAmount);
+        }
+        return refund;
+    }
+
+    /**
+     * Adds a new voyage to the registry unless another one with the same ID got there first, which can only
+     * happen when several channels share the registry.
+     *
+     * @param buses A Map that stores Bus objects identified by their voyage ID.
+     * @param bus The new voyage.
+     * @param command The tokenized INIT_VOYAGE command, recorded in the journal if the voyage is added.
+     * @return True if the voyage was added, false if the ID was already taken.
+     */
+    private boolean addVoyage(Map<Integer, Bus> buses, Bus bus, CommandTokenizer command) {
+        // The new bus is locked until it is journaled, so no command on it can be recorded before it
+        synchronized (bus) {
+            if (buses.putIfAbsent(bus.getID(), bus) != null) {
+                writeError(String.format(Locale.US,"ERROR: There is already a voyage with ID of %d!", bus.getID()));
+                return false;
             }
+            routeIndex.add(bus);
+            journal(BookingJournal.INIT_VOYAGE, command);
+            return true;
         }
+    }
 
-        FileOutput.writeToFile(args[1], String.format(Locale.US,"Revenue: %.2f",bus.getRevenue()), true, true);
+    /**
+     * Appends a command that changed the state to the journal, if there is one. It is called while the lock of the
+     * voyage is held, so the records of a voyage are in the order its commands were applied.
+     *
+     * @param code The journal code of the command.
+     * @param command The tokenized command line.
+     */
+    private void journal(byte code, CommandTokenizer command) {
+        if (journal != null) {
+            journalSequence = journal.append(code, command.getLine());
+        }
+    }
 
-        return 0;
+    /**
+     * Appends a command line that was built for the journal, e.g. the SELL_TICKET equivalent of a SELL_BEST.
+     *
+     * @param code The journal code of the command.
+     * @param line The command line.
+     */
+    private void journal(byte code, String line) {
+        if (journal != null) {
+            journalSequence = journal.append(code, line);
+        }
     }
 
+    /**
+     * Writes the ID, route, seat plan and revenue of a voyage. The bus renders them while holding its lock, so the
+     * plan and the revenue belong to the same moment, and reuses the rendering while the voyage is unchanged.
+     *
+     * @param bus The voyage to write.
+     */
+    private void writeVoyage(Bus bus) {
+        output.write(bus.renderVoyage(), false);
+    }
+
+    /**
+     * Looks up a voyage with a single probe and without boxing the ID when the registry is a VoyageRegistry.
+     *
+     * @param buses A Map that stores Bus objects identified by their voyage ID.
+     * @param id The voyage ID.
+     * @return The bus of the voyage, or null if there is no voyage with that ID.
+     */
+    private static Bus voyage(Map<Integer, Bus> buses, int id) {
+        return buses instanceof VoyageRegistry ? ((VoyageRegistry) buses).get(id) : buses.get(id);
+    }
+
+    /**
+     * Checks whether the text is an integer accepted by Integer.parseInt, without throwing an exception.
+     *
+     * @param str The text to check.
+     * @return True if the text is an integer.
+     */
     public static boolean isNumeric(String str) {
-        try {
-            Integer.parseInt(str);
-            return true; // Başarılı olduysa bu bir sayıdır
-        } catch (NumberFormatException e) {
-            return false; // Bir hata oluşursa bu bir sayı değildir
-        }
+        return str != null && CommandTokenizer.parseInt(str, 0, str.length()) != CommandTokenizer.NOT_AN_INT;
     }
 
+    /**
+     * Checks whether the text is a non-empty string that is not an integer.
+     *
+     * @param str The text to check.
+     * @return True if the text is a string.
+     */
     public static boolean isString(String str) {
         // Boş ya da sadece sayılardan oluşmuyorsa bu metindir
         return !isNumeric(str) && str.length() > 0;
     }
 
+    /**
+     * Checks whether the text is a number accepted by Double.parseDouble, without throwing an exception.
+     *
+     * @param str The text to check.
+     * @return True if the text is a number.
+     */
     public static boolean isDouble(String str) {
-        try {
-            Double.parseDouble(str);
-            return true; // Dönüşüm başarılı olursa bir double'dır
-        } catch (NumberFormatException e) {
-            return false; // Dönüşüm başarısız olursa bir double değildir
-        }
+        return CommandTokenizer.parseDouble(str, 0, str.length()) != CommandTokenizer.NOT_A_DOUBLE;
     }
 }
\ No newline at end of file
@@ -10,12 +10,17 @@
  *  - price: Base price per seat (may be overridden to include premium fee).
  *  - revenue: Current revenue for the bus.
  *  - capacity: Total number of seats in the bus (automatically calculated as rows * 3).
- *  - seats: Boolean array representing seat availability (true for occupied, false for vacant).
+ *  - seats: SeatMap representing seat availability (a set bit for occupied, a clear bit for vacant).
  *  - refundCut: Percentage of ticket price deducted during a refund for Premium buses.
  *  - premiumFee: Additional fee charged for premium seats (center seat in each row).
  *
  */
 public class Premium extends Bus{
+    /**
+     * Bits 0, 3, 6, ..., 63: the premium seats (ticket % 3 == 1) of 64 seats that start with a premium seat.
+     */
+    private static final long EVERY_THIRD = 0x9249249249249249L;
+
     /**
      * Constructor for the Premium class. Initializes the object's properties specific to Premium buses.
      *
@@ -31,72 +36,53 @@ public class Premium extends Bus{
     public Premium(int ID, String from, String to, int rows, double price, double revenue, int refundCut, int premiumFee) {
         super(ID, from, to, rows, price, revenue, refundCut, premiumFee);
         setCapacity(3 * rows);
-        seats = new boolean[capacity];
+        seats = new SeatMap(capacity);
         initializeSeats(this.seats, capacity);
     }
 
     /**
-     * Initializes the seat availability array for the Premium bus. Sets all seats to vacant (false).
+     * Initializes the seat availability map for the Premium bus. Sets all seats to vacant.
      *
-     * @param seats The boolean array to be used for seat availability (true for occupied, false for vacant).
+     * @param seats The SeatMap to be used for seat availability (a set bit for occupied, a clear bit for vacant).
      * @param capacity The total number of seats in the bus.
      */
-    public void initializeSeats(boolean[] seats, int capacity) {
-        // false: boş, true : dolu
-        for (int i = 0; i < capacity; i++) {
-            seats[i] = false;
-        }
+    public void initializeSeats(SeatMap seats, int capacity) {
+        seats.clear();
     }
 
     /**
-     * Updates the bus revenue by adding the specified amount.
+     * Writes the Premium bus seating plan to the output file. The plan uses "X" to represent occupied seats
+     * and "*" for vacant seats, with separators ("|" and spaces) to visually group seats within each row.
+     * Premium seats (center seat) are marked with a "P" within the asterisk (*).
+     * The occupied seats are filled into the row template of SeatPlanRenderer and the plan is written at once.
      *
-     * @param amount The amount to be added to the bus revenue.
+     * @param output The output sink the seating plan is written to.
      */
-    public void increaseRevenue(double amount){
-        setRevenue(getRevenue() + amount);
+    public void writeBusPlan(OutputSink output){
+        SeatPlanRenderer.PREMIUM.write(getSeats(), getRows(), output);
     }
 
     /**
-     * Updates the bus revenue by subtracting the specified amount.
+     * Counts the premium seats of a seat group with one masked popcount per 64 seats.
      *
-     * @param amount The amount to be subtracted from the bus revenue.
+     * @param group A seat group of the capacity of the bus.
+     * @return The number of premium seats in the group.
      */
-    public void decreaseRevenue(double amount){
-        setRevenue(getRevenue() - amount);
+    @Override
+    public int premiumSeats(SeatMap group) {
+        int count = 0;
+        for (int w = 0; w < group.wordCount(); w++) {
+            count += Long.bitCount(group.getWord(w) & premiumMask(w << 6));
+        }
+        return count;
     }
 
     /**
-     * Writes the Premium bus seating plan to the output file. The plan uses "X" to represent occupied seats
-     * and "*" for vacant seats, with separators ("|" and spaces) to visually group seats within each row.
-     * Premium seats (center seat) are marked with a "P" within the asterisk (*).
-     *
-     * @param args The command line arguments passed to the program (unused in this method).
+     * @param base Zero-based index of the first of 64 seats.
+     * @return The premium seats among the 64 seats starting at the given index.
      */
-    public void writeBusPlan(String[] args){
-        int capacity = getCapacity();
-        boolean[] seats = getSeats();
-        for (int i = 0; i < capacity;i++){
-
-            if (seats[i] == false && (i+1) % 3 == 0 ){
-                FileOutput.writeToFile(args[1], "*", true, true);
-            }
-            else if(seats[i] == false && (i+1) % 3 == 2){
-                FileOutput.writeToFile(args[1], " * ", true, false);
-            }
-            else if(seats[i] == false && (i+1) % 3 == 1){
-                FileOutput.writeToFile(args[1], "* |", true, false);
-            }
-            else if(seats[i] == true && (i+1) % 3 == 0) {
-                FileOutput.writeToFile(args[1], "X", true, true);
-            }
-            else if(seats[i] == true && (i+1) % 3 == 2){
-                FileOutput.writeToFile(args[1], " X ", true, false);
-            }
-            else if (seats[i] == true && (i+1) % 3 == 1 ) {
-                FileOutput.writeToFile(args[1], "X |", true, false);
-            }
-        }
+    static long premiumMask(int base) {
+        return EVERY_THIRD << ((3 - base % 3) % 3);
     }
 
 }
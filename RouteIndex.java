@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * This class indexes voyages by route (departure and arrival city) together with their number of free seats, so a
+ * SEARCH_VOYAGES query only visits the voyages of its route that have enough free seats, and never the seats
+ * themselves, and CANCEL_ROUTE finds the voyages of a route without scanning the registry.
+ *
+ * Within a route, voyages are kept ordered by free seats (most first) and then by ID. The index is built from the
+ * registry the first time it is searched; from then on the commands keep it up to date by calling add, update and
+ * remove whenever they register, sell or refund seats of, or cancel a voyage. Those calls are idempotent and do
+ * nothing before the index is built, so a run that never searches does not pay for it.
+ *
+ * The index is thread-safe and can be shared by every PlayGround working on the same registry.
+ */
+public class RouteIndex {
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.freeSeats != b.freeSeats) {
+                return a.freeSeats > b.freeSeats ? -1 : 1;
+            }
+            return Integer.compare(a.bus.getID(), b.bus.getID());
+        }
+    };
+
+    private final HashMap<Long, TreeSet<Entry>> routes = new HashMap<>();
+    private final HashMap<Integer, Entry> entries = new HashMap<>();
+    private boolean built;
+
+    /**
+     * A voyage found by a search, with the number of free seats it had at that moment.
+     */
+    public static final class Match {
+        private final Bus bus;
+        private final int freeSeats;
+
+        private Match(Bus bus, int freeSeats) {
+            this.bus = bus;
+            this.freeSeats = freeSeats;
+        }
+
+        public Bus getBus() {
+            return bus;
+        }
+
+        public int getFreeSeats() {
+            return freeSeats;
+        }
+    }
+
+    private static final class Entry {
+        private final Bus bus;
+        private int freeSeats;
+
+        private Entry(Bus bus, int freeSeats) {
+            this.bus = bus;
+            this.freeSeats = freeSeats;
+        }
+    }
+
+    /**
+     * Adds a new voyage.
+     *
+     * @param bus The voyage.
+     */
+    public synchronized void add(Bus bus) {
+        if (built) {
+            put(bus);
+        }
+    }
+
+    /**
+     * Refreshes the number of free seats of a voyage after its seats changed.
+     *
+     * @param bus The voyage.
+     */
+    public synchronized void update(Bus bus) {
+        if (!built) {
+            return;
+        }
+        Entry entry = entries.get(bus.getID());
+        int freeSeats = freeSeats(bus);
+        if (entry == null || entry.bus != bus || entry.freeSeats == freeSeats) {
+            return;
+        }
+        TreeSet<Entry> route = routes.get(bus.getRouteKey());
+        route.remove(entry);
+        entry.freeSeats = freeSeats;
+        route.add(entry);
+    }
+
+    /**
+     * Removes a cancelled voyage.
+     *
+     * @param bus The voyage.
+     */
+    public synchronized void remove(Bus bus) {
+        if (!built) {
+            return;
+        }
+        Entry entry = entries.get(bus.getID());
+        if (entry == null || entry.bus != bus) {
+            return;
+        }
+        entries.remove(bus.getID());
+        TreeSet<Entry> route = routes.get(bus.getRouteKey());
+        route.remove(entry);
+        if (route.isEmpty()) {
+            routes.remove(bus.getRouteKey());
+        }
+    }
+
+    /**
+     * Finds the voyages of a route with at least the given number of free seats, building the index from the
+     * registry first if this is the first search.
+     *
+     * @param buses     The registry the index belongs to.
+     * @param from      The CityDictionary code of the departure city.
+     * @param to        The CityDictionary code of the arrival city.
+     * @param seats     The number of free seats a voyage needs.
+     * @return The voyages ordered by free seats (most first) and then by ID.
+     */
+    public synchronized List<Match> search(Map<Integer, Bus> buses, int from, int to, int seats) {
+        build(buses);
+        List<Match> matches = new ArrayList<>();
+        TreeSet<Entry> route = routes.get(CityDictionary.routeKey(from, to));
+        if (route != null) {
+            for (Entry entry : route) {
+                if (entry.freeSeats < seats) {
+                    break;
+                }
+                matches.add(new Match(entry.bus, entry.freeSeats));
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns every voyage of a route, building the index from the registry first if it has not been built yet.
+     *
+     * @param buses     The registry the index belongs to.
+     * @param from      The CityDictionary code of the departure city.
+     * @param to        The CityDictionary code of the arrival city.
+     * @return The voyages in ascending order of their IDs.
+     */
+    public synchronized List<Bus> voyages(Map<Integer, Bus> buses, int from, int to) {
+        build(buses);
+        List<Bus> voyages = new ArrayList<>();
+        TreeSet<Entry> route = routes.get(CityDictionary.routeKey(from, to));
+        if (route != null) {
+            for (Entry entry : route) {
+                voyages.add(entry.bus);
+            }
+            voyages.sort(Comparator.comparingInt(Bus::getID));
+        }
+        return voyages;
+    }
+
+    private void build(Map<Integer, Bus> buses) {
+        if (!built) {
+            for (Bus bus : buses.values()) {
+                put(bus);
+            }
+            built = true;
+        }
+    }
+
+    private void put(Bus bus) {
+        if (entries.containsKey(bus.getID())) {
+            return;
+        }
+        Entry entry = new Entry(bus, freeSeats(bus));
+        entries.put(bus.getID(), entry);
+        TreeSet<Entry> route = routes.get(bus.getRouteKey());
+        if (route == null) {
+            route = new TreeSet<>(ORDER);
+            routes.put(bus.getRouteKey(), route);
+        }
+        route.add(entry);
+    }
+
+    private static int freeSeats(Bus bus) {
+        return bus.freeSeats();
+    }
+}
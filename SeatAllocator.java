@@ -0,0 +1,185 @@
+/**
+ * This class picks the best available seats of a voyage for SELL_BEST. In order of preference it looks for:
+ *
+ *  1. a block of adjacent free seats within a single row,
+ *  2. a run of free seats that continues from one row into the next (seats of the other class may lie in between,
+ *     e.g. the premium seat between the regular pairs of two Premium rows),
+ *  3. the lowest numbered free seats, if the free seats are too scattered for a block.
+ *
+ * Every step works on the 64-seat words of the SeatMap. The row search reads a window of whole rows (16 Standard, 32
+ * Minibus or 21 Premium rows) as one long and finds the first block with a shift-and cascade; the run search jumps
+ * from one occupied seat to the next and counts the free seats in between with a popcount.
+ *
+ * Seats on hold count as occupied: they are merged into a copy of the seats before the search.
+ *
+ * Seat classes follow the Premium layout: seats with ticket % 3 == 1 are premium and the other two of the row are
+ * regular. Every seat of a Standard or Minibus is regular.
+ */
+public final class SeatAllocator {
+    public static final int ANY = 0;
+    public static final int REGULAR = 1;
+    public static final int PREMIUM = 2;
+
+    private SeatAllocator() {
+    }
+
+    /**
+     * Finds the best available seats of the given class and adds them to the group. The seats of the voyage are not
+     * changed; the caller holds the lock of the voyage and sells the group.
+     *
+     * @param bus       The voyage.
+     * @param seatClass ANY, REGULAR or PREMIUM.
+     * @param count     The number of seats, at least 1.
+     * @param group     An empty seat group of the capacity of the voyage.
+     * @return True if the seats were found, false if the voyage has fewer free seats of the class.
+     */
+    public static boolean allocate(Bus bus, int seatClass, int count, SeatMap group) {
+        SeatMap seats = unavailable(bus);
+        int capacity = bus.getCapacity();
+        int seatsPerRow = capacity / bus.getRows();
+        // Only a Premium layout has two classes; on the other layouts every seat is regular
+        int layoutClass = bus instanceof Premium ? seatClass : ANY;
+
+        int start = rowBlock(seats, capacity, seatsPerRow, layoutClass, count);
+        if (start >= 0) {
+            for (int k = 0; k < count; k++) {
+                group.occupy(start + k);
+            }
+            return true;
+        }
+        start = run(seats, capacity, layoutClass, count);
+        if (start < 0) {
+            start = 0; //No run is long enough, take the first free seats
+        }
+        int taken = 0;
+        for (int w = start >>> 6; w < seats.wordCount() && taken < count; w++) {
+            int base = w << 6;
+            long free = ~seats.getWord(w) & allowed(layoutClass, base) & valid(capacity, base);
+            if (base < start) {
+                free &= -1L << start;
+            }
+            for (; free != 0 && taken < count; free &= free - 1) {
+                group.occupy(base + Long.numberOfTrailingZeros(free));
+                taken++;
+            }
+        }
+        if (taken < count) {
+            group.clear();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The seats of the voyage that are sold or on hold.
+     */
+    private static SeatMap unavailable(Bus bus) {
+        SeatMap seats = bus.getSeats();
+        SeatMap held = bus.getHeldSeats();
+        if (held == null || held.occupiedCount() == 0) {
+            return seats;
+        }
+        SeatMap merged = new SeatMap(bus.getCapacity());
+        merged.occupyAll(seats);
+        merged.occupyAll(held);
+        return merged;
+    }
+
+    /**
+     * Finds the first row with count adjacent free seats of the class.
+     *
+     * @return The index of the first seat of the block, or -1 if there is none.
+     */
+    private static int rowBlock(SeatMap seats, int capacity, int seatsPerRow, int seatClass, int count) {
+        if (count > seatsPerRow) {
+            return -1;
+        }
+        int windowBits = (64 / seatsPerRow) * seatsPerRow;
+        // The positions of a window where a block of count seats starts and still ends in the same row
+        long starts = 0;
+        for (int bit = 0; bit < windowBits; bit++) {
+            if (bit % seatsPerRow + count <= seatsPerRow) {
+                starts |= 1L << bit;
+            }
+        }
+        for (int base = 0; base < capacity; base += windowBits) {
+            long free = ~window(seats, base) & allowed(seatClass, base) & valid(capacity, base);
+            // After the cascade bit i is set if seats i to i + count - 1 are all free
+            long block = free;
+            for (int k = 1; k < count; k++) {
+                block &= block >>> 1;
+            }
+            block &= starts;
+            if (block != 0) {
+                return base + Long.numberOfTrailingZeros(block);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first run of count free seats of the class that is not interrupted by an occupied seat of the class.
+     *
+     * @return The index of the first seat of the run, or -1 if there is none.
+     */
+    private static int run(SeatMap seats, int capacity, int seatClass, int count) {
+        int runStart = 0;
+        int runFree = 0;
+        for (int w = 0; w < seats.wordCount(); w++) {
+            int base = w << 6;
+            long inClass = allowed(seatClass, base) & valid(capacity, base);
+            long occupied = seats.getWord(w) & inClass;
+            long free = ~seats.getWord(w) & inClass;
+            int from = 0;
+            for (; occupied != 0; occupied &= occupied - 1) {
+                int bit = Long.numberOfTrailingZeros(occupied);
+                runFree += Long.bitCount(free & (-1L << from) & ((1L << bit) - 1));
+                if (runFree >= count) {
+                    return runStart;
+                }
+                runStart = base + bit + 1;
+                runFree = 0;
+                from = bit + 1;
+            }
+            if (from < 64) {
+                runFree += Long.bitCount(free & (-1L << from));
+            }
+            if (runFree >= count) {
+                return runStart;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The occupancy bits of the 64 seats starting at the given index.
+     */
+    private static long window(SeatMap seats, int base) {
+        int w = base >>> 6;
+        int shift = base & 63;
+        long bits = seats.getWord(w) >>> shift;
+        if (shift != 0 && w + 1 < seats.wordCount()) {
+            bits |= seats.getWord(w + 1) << (64 - shift);
+        }
+        return bits;
+    }
+
+    /**
+     * @return The seats of the class among the 64 seats starting at the given index.
+     */
+    private static long allowed(int seatClass, int base) {
+        if (seatClass == ANY) {
+            return -1L;
+        }
+        long premium = Premium.premiumMask(base);
+        return seatClass == PREMIUM ? premium : ~premium;
+    }
+
+    /**
+     * @return The seats that exist among the 64 seats starting at the given index.
+     */
+    private static long valid(int capacity, int base) {
+        int remaining = capacity - base;
+        return remaining >= 64 ? -1L : (1L << remaining) - 1;
+    }
+}
@@ -0,0 +1,237 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * This class keeps the seat holds of HOLD_SEATS until they are confirmed, released or expire. Holds are found by
+ * their ID, and their expiry is scheduled on a hashed timer wheel: time is cut into ticks, and a hold is linked into
+ * the bucket of the tick it expires in (modulo the size of the wheel), so adding, removing and expiring a hold are
+ * O(1) however many holds are outstanding, and expiring visits only the buckets of the ticks that have passed and
+ * never the voyages.
+ *
+ * The wheel is driven by the commands instead of a thread of its own: before a command, and before it takes the lock
+ * of any voyage, whatever runs the commands collects the holds that have expired since the previous one and gives
+ * their seats back. A hold that expires while no command runs is therefore released before the next command can see
+ * its seats.
+ *
+ * Time comes from a clock given to the holds. By default it is a command clock, advanced by whatever runs the
+ * commands by COMMAND_MILLIS per command, so a command file expires its holds at the same commands however it is
+ * run, e.g. in parallel, from a binary command log or again after a replay. Only a server that serves real clients
+ * uses the system clock.
+ *
+ * The holds are thread-safe and can be shared by every PlayGround working on the same registry. The seats of a hold
+ * are changed by the caller while it holds the lock of the voyage; this class only takes its own lock, never while
+ * the caller waits for a voyage.
+ */
+public class SeatHolds {
+    /**
+     * Default length of a tick of the wheel in milliseconds, i.e. how late a hold may expire.
+     */
+    public static final long DEFAULT_TICK_MILLIS = 100;
+
+    /**
+     * How far the command clock advances per command, i.e. a hold of t seconds is released before the t-th command
+     * after it.
+     */
+    public static final long COMMAND_MILLIS = 1000;
+
+    private static final int WHEEL_SIZE = 512;
+
+    private final LongSupplier clock;
+    private final AtomicLong commandClock;
+    private final long tickMillis;
+    private final Hold[] wheel = new Hold[WHEEL_SIZE];
+    private final HashMap<Long, Hold> holds = new HashMap<>();
+    private long nextId = 1;
+    private volatile long currentTick;
+    private volatile int size;
+
+    /**
+     * One hold: a group of seats of a voyage, kept until its deadline.
+     */
+    public static final class Hold {
+        private final long id;
+        private final Bus bus;
+        private final SeatMap seats;
+        private final int ttl;
+        private long deadlineTick;
+        private Hold previous;
+        private Hold next;
+
+        private Hold(long id, Bus bus, SeatMap seats, int ttl) {
+            this.id = id;
+            this.bus = bus;
+            this.seats = seats;
+            this.ttl = ttl;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Bus getBus() {
+            return bus;
+        }
+
+        public SeatMap getSeats() {
+            return seats;
+        }
+
+        /**
+         * @return The time to live the hold was given, in seconds.
+         */
+        public int getTtl() {
+            return ttl;
+        }
+    }
+
+    /**
+     * Constructor for the SeatHolds class on a command clock, which starts at 0 and is advanced by advance.
+     */
+    public SeatHolds() {
+        this(new AtomicLong(), null, COMMAND_MILLIS);
+    }
+
+    /**
+     * Constructor for the SeatHolds class.
+     *
+     * @param clock      The clock in milliseconds, which must never go back.
+     * @param tickMillis The length of a tick of the wheel in milliseconds.
+     */
+    public SeatHolds(LongSupplier clock, long tickMillis) {
+        this(null, clock, tickMillis);
+    }
+
+    private SeatHolds(AtomicLong commandClock, LongSupplier clock, long tickMillis) {
+        this.commandClock = commandClock;
+        this.clock = commandClock != null ? commandClock::get : clock;
+        this.tickMillis = tickMillis;
+        this.currentTick = this.clock.getAsLong() / tickMillis;
+    }
+
+    /**
+     * @return Holds on the monotonic system clock, for a server whose holds last real seconds.
+     */
+    public static SeatHolds onSystemClock() {
+        return new SeatHolds(() -> System.nanoTime() / 1000000, DEFAULT_TICK_MILLIS);
+    }
+
+    /**
+     * Advances the command clock by the given number of commands. Holds on another clock ignore it.
+     *
+     * @param commands The number of commands that are about to run.
+     */
+    public void advance(int commands) {
+        if (commandClock != null) {
+            commandClock.addAndGet(commands * COMMAND_MILLIS);
+        }
+    }
+
+    /**
+     * Adds a hold. The caller has already put the seats on hold on the voyage.
+     *
+     * @param bus   The voyage, locked by the caller.
+     * @param seats The seats of the hold.
+     * @param ttl   The time to live of the hold in seconds.
+     * @return The new hold.
+     */
+    public synchronized Hold add(Bus bus, SeatMap seats, int ttl) {
+        Hold hold = new Hold(nextId++, bus, seats, ttl);
+        long deadline = clock.getAsLong() + ttl * 1000L;
+        // The deadline is rounded up to a whole tick, so a hold never expires early
+        hold.deadlineTick = Math.max((deadline + tickMillis - 1) / tickMillis, currentTick + 1);
+        link(hold);
+        holds.put(hold.id, hold);
+        size = holds.size();
+        return hold;
+    }
+
+    /**
+     * @param id The ID of a hold.
+     * @return The hold, null if there is no such hold or it has been confirmed, released or has expired.
+     */
+    public synchronized Hold get(long id) {
+        return holds.get(id);
+    }
+
+    /**
+     * Removes a hold that has been confirmed or released.
+     *
+     * @param hold The hold.
+     * @return True if the hold was removed, false if it had already been removed or has expired.
+     */
+    public synchronized boolean remove(Hold hold) {
+        if (holds.remove(hold.id) != hold) {
+            return false;
+        }
+        unlink(hold);
+        size = holds.size();
+        return true;
+    }
+
+    /**
+     * Removes the holds whose deadline has passed. The caller gives their seats back.
+     *
+     * @return The expired holds, in no particular order.
+     */
+    public List<Hold> expire() {
+        // Without holds, or within the current tick, nothing can expire and no lock is taken
+        if (size == 0 || clock.getAsLong() / tickMillis <= currentTick) {
+            return Collections.emptyList();
+        }
+        synchronized (this) {
+            long now = clock.getAsLong() / tickMillis;
+            List<Hold> expired = new ArrayList<>();
+            // After a long pause every bucket is visited once instead of once per tick that passed
+            long ticks = Math.min(now - currentTick, WHEEL_SIZE);
+            for (long tick = currentTick + 1; tick <= currentTick + ticks; tick++) {
+                Hold hold = wheel[(int) (tick & (WHEEL_SIZE - 1))];
+                while (hold != null) {
+                    Hold next = hold.next;
+                    // Holds in the same bucket may be due in a later turn of the wheel
+                    if (hold.deadlineTick <= now) {
+                        unlink(hold);
+                        holds.remove(hold.id);
+                        expired.add(hold);
+                    }
+                    hold = next;
+                }
+            }
+            currentTick = Math.max(currentTick, now);
+            size = holds.size();
+            return expired;
+        }
+    }
+
+    /**
+     * @return The number of outstanding holds.
+     */
+    public int size() {
+        return size;
+    }
+
+    private void link(Hold hold) {
+        int bucket = (int) (hold.deadlineTick & (WHEEL_SIZE - 1));
+        hold.next = wheel[bucket];
+        if (hold.next != null) {
+            hold.next.previous = hold;
+        }
+        wheel[bucket] = hold;
+    }
+
+    private void unlink(Hold hold) {
+        if (hold.previous != null) {
+            hold.previous.next = hold.next;
+        } else {
+            wheel[(int) (hold.deadlineTick & (WHEEL_SIZE - 1))] = hold.next;
+        }
+        if (hold.next != null) {
+            hold.next.previous = hold.previous;
+        }
+        hold.previous = null;
+        hold.next = null;
+    }
+}
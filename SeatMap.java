@@ -0,0 +1,202 @@
+/**
+ * This class keeps the occupancy of the seats of a bus as bits in a long array, one bit per seat (1 for occupied,
+ * 0 for vacant). Seat indexes are zero-based, so seat number n of a voyage is stored at index n - 1.
+ *
+ * Besides single seat access, a SeatMap can be used as a mask: a group of seats is collected in a second SeatMap of
+ * the same capacity and tested or applied against the seats of the bus with one operation per 64 seats.
+ */
+public class SeatMap {
+    private final int capacity;
+    private final long[] words;
+    private int occupied;
+    private long version;
+
+    /**
+     * Constructor for the SeatMap class. All seats start vacant.
+     *
+     * @param capacity The total number of seats.
+     */
+    public SeatMap(int capacity) {
+        this.capacity = capacity;
+        this.words = new long[(capacity + 63) >>> 6];
+    }
+
+    /**
+     * @param index Zero-based seat index.
+     * @return True if the seat is occupied, false if it is vacant.
+     */
+    public boolean isOccupied(int index) {
+        return (words[index >> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Marks the seat at the given index as occupied.
+     *
+     * @param index Zero-based seat index.
+     */
+    public void occupy(int index) {
+        long bit = 1L << index;
+        int w = index >> 6;
+        if ((words[w] & bit) == 0) {
+            words[w] |= bit;
+            occupied++;
+            version++;
+        }
+    }
+
+    /**
+     * Marks the seat at the given index as vacant.
+     *
+     * @param index Zero-based seat index.
+     */
+    public void release(int index) {
+        long bit = 1L << index;
+        int w = index >> 6;
+        if ((words[w] & bit) != 0) {
+            words[w] &= ~bit;
+            occupied--;
+            version++;
+        }
+    }
+
+    /**
+     * Marks every seat as vacant.
+     */
+    public void clear() {
+        for (int w = 0; w < words.length; w++) {
+            words[w] = 0;
+        }
+        occupied = 0;
+        version++;
+    }
+
+    /**
+     * @return The number of occupied seats.
+     */
+    public int occupiedCount() {
+        return occupied;
+    }
+
+    /**
+     * @param mask A seat group of the same capacity.
+     * @return True if at least one seat of the group is occupied.
+     */
+    public boolean intersects(SeatMap mask) {
+        for (int w = 0; w < words.length; w++) {
+            if ((words[w] & mask.words[w]) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param mask A seat group of the same capacity.
+     * @return True if every seat of the group is occupied.
+     */
+    public boolean containsAll(SeatMap mask) {
+        for (int w = 0; w < words.length; w++) {
+            if ((mask.words[w] & ~words[w]) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marks every seat of the group as occupied.
+     *
+     * @param mask A seat group of the same capacity.
+     */
+    public void occupyAll(SeatMap mask) {
+        for (int w = 0; w < words.length; w++) {
+            words[w] |= mask.words[w];
+        }
+        recount();
+    }
+
+    /**
+     * Marks every seat of the group as vacant.
+     *
+     * @param mask A seat group of the same capacity.
+     */
+    public void releaseAll(SeatMap mask) {
+        for (int w = 0; w < words.length; w++) {
+            words[w] &= ~mask.words[w];
+        }
+        recount();
+    }
+
+    /**
+     * Finds the first occupied seat at or after the given index.
+     *
+     * @param from Zero-based seat index the search starts from.
+     * @return The index of the first occupied seat, or -1 if all the remaining seats are vacant.
+     */
+    public int nextOccupied(int from) {
+        if (from >= capacity) {
+            return -1;
+        }
+        int w = from >> 6;
+        long bits = words[w] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++w == words.length) {
+                return -1;
+            }
+            bits = words[w];
+        }
+    }
+
+    /**
+     * @return The number of 64-seat words the seats are stored in.
+     */
+    public int wordCount() {
+        return words.length;
+    }
+
+    /**
+     * @param w Index of the word.
+     * @return The occupancy bits of seats 64 * w to 64 * w + 63.
+     */
+    public long getWord(int w) {
+        return words[w];
+    }
+
+    /**
+     * Replaces the occupancy bits of seats 64 * w to 64 * w + 63, e.g. when the seats are loaded from a snapshot.
+     *
+     * @param w    Index of the word.
+     * @param bits The new occupancy bits.
+     */
+    public void setWord(int w, long bits) {
+        occupied += Long.bitCount(bits) - Long.bitCount(words[w]);
+        words[w] = bits;
+        version++;
+    }
+
+    /**
+     * @return A counter that changes whenever a seat changes, so a rendering of the seats can tell it is stale.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Recomputes the occupied seat count with a popcount over the words after a bulk update.
+     */
+    private void recount() {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        occupied = count;
+        version++;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * This class renders the seat plan of a bus layout from a row template, e.g. "* * | * *" for a Standard bus. The
+ * template of every row is copied into a reusable buffer, the occupied seats are then marked with "X" by walking the
+ * set bits of the occupancy words, and the whole plan is written with a single write.
+ *
+ * The plan only contains ASCII characters, so the buffer is a char array that the output sink encodes once. Every
+ * thread has its own buffer, so one renderer can be shared by all the buses of a layout.
+ */
+public final class SeatPlanRenderer {
+    public static final SeatPlanRenderer STANDARD = new SeatPlanRenderer("* * | * *\n");
+    public static final SeatPlanRenderer PREMIUM = new SeatPlanRenderer("* | * *\n");
+    public static final SeatPlanRenderer MINIBUS = new SeatPlanRenderer("* *\n");
+
+    private static final ThreadLocal<char[]> BUFFER = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[256];
+        }
+    };
+
+    private final char[] template;
+    private final int[] columns;
+
+    /**
+     * Constructor for a renderer. Every "*" of the template is a seat, from left to right.
+     *
+     * @param template The plan of one empty row, ending with a line break.
+     */
+    public SeatPlanRenderer(String template) {
+        this.template = template.toCharArray();
+        int seats = 0;
+        for (char c : this.template) {
+            if (c == '*') {
+                seats++;
+            }
+        }
+        this.columns = new int[seats];
+        for (int i = 0, k = 0; i < this.template.length; i++) {
+            if (this.template[i] == '*') {
+                columns[k++] = i;
+            }
+        }
+    }
+
+    /**
+     * Writes the seat plan of a bus, "X" for occupied and "*" for vacant seats.
+     *
+     * @param seats  The seats of the bus.
+     * @param rows   The number of rows of the bus.
+     * @param output The output sink the plan is written to.
+     */
+    public void write(SeatMap seats, int rows, OutputSink output) {
+        int rowLength = template.length;
+        int length = rows * rowLength;
+        char[] buffer = BUFFER.get();
+        if (buffer.length < length) {
+            buffer = new char[Math.max(length, buffer.length * 2)];
+            BUFFER.set(buffer);
+        }
+        for (int offset = 0; offset < length; offset += rowLength) {
+            System.arraycopy(template, 0, buffer, offset, rowLength);
+        }
+        int perRow = columns.length;
+        for (int w = 0; w < seats.wordCount(); w++) {
+            for (long bits = seats.getWord(w); bits != 0; bits &= bits - 1) {
+                int seat = (w << 6) + Long.numberOfTrailingZeros(bits);
+                int row = seat / perRow;
+                buffer[row * rowLength + columns[seat - row * perRow]] = 'X';
+            }
+        }
+        output.write(buffer, 0, length);
+    }
+}
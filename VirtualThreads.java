@@ -0,0 +1,55 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class creates executors that run every task on a thread of its own, e.g. one per connection of the
+ * BookingServer. On JDK 21 and later the threads are virtual threads, so thousands of blocked connections cost a few
+ * kilobytes each; the project is compiled for Java 8, so they are created through reflection. On older JDKs the
+ * executor falls back to a cached pool of platform daemon threads.
+ */
+public final class VirtualThreads {
+    private static final Method NEW_VIRTUAL_EXECUTOR = lookup();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return True if the executors of this class run their tasks on virtual threads.
+     */
+    public static boolean available() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that starts a new thread for every task.
+     *
+     * @param name The name prefix of the platform threads, if virtual threads are not available.
+     * @return The new executor.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(final String name) {
+        if (NEW_VIRTUAL_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch (IllegalAccessException | InvocationTargetException e) { //Cannot happen for a public JDK method
+                throw new IllegalStateException(e);
+            }
+        }
+        final AtomicInteger threads = new AtomicInteger();
+        return Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, name + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static Method lookup() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * This class is the registry of voyages. It is a Map from voyage ID to Bus that iterates the voyages in ascending
+ * order of their IDs, so Z reports list them in a defined order that does not depend on the hash layout.
+ *
+ * Lookups by ID (get, containsKey) use an IntBusMap index and take constant time; get(int) and containsKey(int)
+ * also avoid boxing the ID. The ordered view is only updated when a voyage is added or removed.
+ *
+ * A registry can start from a VoyageSnapshot. A voyage of the snapshot is decoded and added to the registry the first
+ * time it is looked up, so commands on a few voyages do not load the others; iterating the registry loads the voyages
+ * first.
+ */
+public class VoyageRegistry extends AbstractMap<Integer, Bus> {
+    private final IntBusMap index = new IntBusMap();
+    private final TreeMap<Integer, Bus> ordered = new TreeMap<>();
+    private final Set<Map.Entry<Integer, Bus>> entries = new EntrySet();
+    private VoyageSnapshot snapshot;
+    private BitSet loaded;
+    private int unloaded;
+
+    /**
+     * Constructor for an empty VoyageRegistry.
+     */
+    public VoyageRegistry() {
+    }
+
+    /**
+     * Constructor for a VoyageRegistry that starts with the voyages of a snapshot, decoded when they are used.
+     *
+     * @param snapshot The snapshot.
+     */
+    public VoyageRegistry(VoyageSnapshot snapshot) {
+        this.snapshot = snapshot;
+        this.loaded = new BitSet(snapshot.size());
+        this.unloaded = snapshot.size();
+    }
+
+    /**
+     * @param id The voyage ID.
+     * @return The bus of the voyage, or null if there is no voyage with that ID.
+     */
+    public Bus get(int id) {
+        Bus bus = index.get(id);
+        if (bus == null && unloaded > 0) {
+            int slot = snapshot.find(id);
+            if (slot >= 0 && !loaded.get(slot)) {
+                bus = load(slot);
+            }
+        }
+        return bus;
+    }
+
+    /**
+     * @param id The voyage ID.
+     * @return True if there is a voyage with that ID.
+     */
+    public boolean containsKey(int id) {
+        return get(id) != null;
+    }
+
+    @Override
+    public Bus get(Object id) {
+        return id instanceof Integer ? get((int) (Integer) id) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object id) {
+        return id instanceof Integer && get((int) (Integer) id) != null;
+    }
+
+    @Override
+    public Bus put(Integer id, Bus bus) {
+        get((int) id);
+        Bus previous = index.put(id, bus);
+        ordered.put(id, bus);
+        return previous;
+    }
+
+    @Override
+    public Bus putIfAbsent(Integer id, Bus bus) {
+        get((int) id);
+        Bus previous = index.putIfAbsent(id, bus);
+        if (previous == null) {
+            ordered.put(id, bus);
+        }
+        return previous;
+    }
+
+    @Override
+    public Bus remove(Object id) {
+        if (!(id instanceof Integer)) {
+            return null;
+        }
+        get((int) (Integer) id);
+        Bus previous = index.remove((Integer) id);
+        if (previous != null) {
+            ordered.remove(id);
+        }
+        return previous;
+    }
+
+    @Override
+    public boolean remove(Object id, Object bus) {
+        if (id instanceof Integer && bus instanceof Bus && get((int) (Integer) id) == bus) {
+            index.remove((Integer) id);
+            ordered.remove(id);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return index.size() + unloaded;
+    }
+
+    @Override
+    public void clear() {
+        index.clear();
+        ordered.clear();
+        unloaded = 0;
+    }
+
+    /**
+     * @return The voyages in ascending order of their IDs, as a read-only view.
+     */
+    @Override
+    public Collection<Bus> values() {
+        loadRange(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        return Collections.unmodifiableCollection(ordered.values());
+    }
+
+    /**
+     * @return The voyages in ascending order of their IDs.
+     */
+    @Override
+    public Set<Map.Entry<Integer, Bus>> entrySet() {
+        return entries;
+    }
+
+    /**
+     * Decodes a voyage of the snapshot and adds it to the registry.
+     */
+    private Bus load(int slot) {
+        Bus bus = snapshot.load(slot);
+        loaded.set(slot);
+        unloaded--;
+        index.put(bus.getID(), bus);
+        ordered.put(bus.getID(), bus);
+        return bus;
+    }
+
+    /**
+     * Decodes the voyages of the snapshot in the given ID range that have not been used yet.
+     */
+    private void loadRange(int fromId, int toId) {
+        if (unloaded == 0) {
+            return;
+        }
+        for (int slot = snapshot.lowerBound(fromId); slot < snapshot.size() && snapshot.idAt(slot) <= toId; slot++) {
+            if (!loaded.get(slot)) {
+                load(slot);
+            }
+        }
+    }
+
+    /**
+     * The entries of the ordered view. Removing through its iterator also removes the voyage from the index.
+     */
+    private final class EntrySet extends AbstractSet<Map.Entry<Integer, Bus>> {
+        @Override
+        public Iterator<Map.Entry<Integer, Bus>> iterator() {
+            loadRange(Integer.MIN_VALUE, Integer.MAX_VALUE);
+            final Iterator<Map.Entry<Integer, Bus>> iterator = ordered.entrySet().iterator();
+            return new Iterator<Map.Entry<Integer, Bus>>() {
+                private Integer current;
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Map.Entry<Integer, Bus> next() {
+                    Map.Entry<Integer, Bus> entry = iterator.next();
+                    current = entry.getKey();
+                    return new AbstractMap.SimpleImmutableEntry<>(entry);
+                }
+
+                @Override
+                public void remove() {
+                    iterator.remove();
+                    index.remove(current);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return VoyageRegistry.this.size();
+        }
+    }
+}
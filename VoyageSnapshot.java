@@ -0,0 +1,320 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is a compact binary snapshot of the voyage registry that is written and read through a memory mapping.
+ * Opening a snapshot only maps the file and checks its header; a voyage is decoded into a Bus the first time it is
+ * asked for, so a registry with millions of voyages is available immediately and only pays for the voyages that are
+ * used.
+ *
+ * The file is laid out as (all numbers big-endian):
+ *
+ *  - header: the magic bytes "BKS4", int number of voyages, long journal position the snapshot covers
+ *  - index: one entry per voyage in ascending ID order, int ID and long offset of the record
+ *  - records: byte type (0 minibus, 1 standard, 2 premium), int rows, double price, int refund cut, int premium fee,
+ *    long revenue in micros, the departure and arrival as unsigned short length and UTF-8 bytes, unsigned short number
+ *    of intermediate stops and each of them as unsigned short length and UTF-8 bytes, then the seat bits as longs; for a voyage with
+ *    intermediate stops the seat bits of every segment follow those of the whole voyage
+ *
+ * A single mapping is used, so a snapshot is limited to 2 GB.
+ */
+public class VoyageSnapshot implements AutoCloseable {
+    private static final byte[] MAGIC = {'B', 'K', 'S', '4'};
+    private static final int HEADER = 16;
+    private static final int INDEX_ENTRY = 12;
+    private static final int MAX_FIELD = 0xffff;
+
+    private static final byte MINIBUS = 0;
+    private static final byte STANDARD = 1;
+    private static final byte PREMIUM = 2;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final long journalPosition;
+
+    private VoyageSnapshot(FileChannel channel, MappedByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+        byte[] magic = new byte[MAGIC.length];
+        for (int i = 0; i < magic.length && i < buffer.limit(); i++) {
+            magic[i] = buffer.get(i);
+        }
+        if (buffer.limit() < HEADER || !Arrays.equals(magic, MAGIC)) {
+            throw new IllegalStateException("The file is not a voyage snapshot!");
+        }
+        this.count = buffer.getInt(4);
+        this.journalPosition = buffer.getLong(8);
+    }
+
+    /**
+     * Maps the snapshot at the given path. Nothing is decoded until a voyage is asked for.
+     *
+     * @param path Path of the snapshot file.
+     * @return The snapshot.
+     */
+    public static VoyageSnapshot open(String path) {
+        try {
+            FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            try {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("The snapshot is larger than 2 GB!");
+                }
+                return new VoyageSnapshot(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a snapshot of every voyage in the registry. The snapshot is written next to the target and moved over it
+     * once it is complete, so a snapshot that is mapped at the moment or a crash never leaves a partial file behind.
+     *
+     * @param path            Path of the snapshot file.
+     * @param buses           The voyages.
+     * @param journalPosition The journal position up to which the commands are included in the voyages.
+     */
+    public static void write(String path, Map<Integer, Bus> buses, long journalPosition) {
+        List<Bus> voyages = new ArrayList<>(buses.values());
+        voyages.sort(Comparator.comparingInt(Bus::getID)); //Already sorted if the registry is a VoyageRegistry
+        byte[][][] routes = new byte[voyages.size()][][];
+        long size = HEADER + (long) INDEX_ENTRY * voyages.size();
+        for (int i = 0; i < voyages.size(); i++) {
+            Bus bus = voyages.get(i);
+            routes[i] = route(bus);
+            size += recordSize(bus, routes[i]);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The snapshot would be larger than 2 GB!");
+        }
+        Path target = Paths.get(path);
+        Path temporary = Paths.get(path + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                out.put(MAGIC).putInt(voyages.size()).putLong(journalPosition);
+                long offset = HEADER + (long) INDEX_ENTRY * voyages.size();
+                for (int i = 0; i < voyages.size(); i++) {
+                    Bus bus = voyages.get(i);
+                    out.putInt(bus.getID()).putLong(offset);
+                    offset += recordSize(bus, routes[i]);
+                }
+                for (int i = 0; i < voyages.size(); i++) {
+                    Bus bus = voyages.get(i);
+                    // Each voyage is copied under its lock, so its seats and revenue belong to the same moment
+                    synchronized (bus) {
+                        out.put(bus instanceof Premium ? PREMIUM : bus instanceof Standard ? STANDARD : MINIBUS);
+                        out.putInt(bus.getRows());
+                        out.putDouble(bus.getPrice());
+                        out.putInt(bus.getRefundCut());
+                        out.putInt(bus.getPremiumFee());
+                        out.putLong(bus.getRevenueMicros());
+                        byte[][] route = routes[i];
+                        out.putShort((short) route[0].length).put(route[0]);
+                        out.putShort((short) route[route.length - 1].length).put(route[route.length - 1]);
+                        out.putShort((short) (route.length - 2));
+                        for (int stop = 1; stop < route.length - 1; stop++) {
+                            out.putShort((short) route[stop].length).put(route[stop]);
+                        }
+                        SeatMap seats = bus.getSeats();
+                        for (int w = 0; w < seats.wordCount(); w++) {
+                            out.putLong(seats.getWord(w));
+                        }
+                        for (int segment = 0; bus.getSegmentCount() > 1 && segment < bus.getSegmentCount(); segment++) {
+                            SeatMap segmentSeats = bus.getSegmentSeats(segment);
+                            for (int w = 0; w < segmentSeats.wordCount(); w++) {
+                                out.putLong(segmentSeats.getWord(w));
+                            }
+                        }
+                    }
+                }
+                out.force();
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return The number of voyages in the snapshot.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return The journal position up to which the commands are included in the snapshot.
+     */
+    public long getJournalPosition() {
+        return journalPosition;
+    }
+
+    /**
+     * Finds a voyage in the index with a binary search.
+     *
+     * @param id The voyage ID.
+     * @return The slot of the voyage, or -1 if it is not in the snapshot.
+     */
+    public int find(int id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middleId = idAt(middle);
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first slot whose voyage ID is at least the given one.
+     *
+     * @param id The voyage ID.
+     * @return The slot, or size() if every ID is smaller.
+     */
+    public int lowerBound(int id) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (idAt(middle) < id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param slot The slot of a voyage.
+     * @return The ID of the voyage.
+     */
+    public int idAt(int slot) {
+        return buffer.getInt(HEADER + slot * INDEX_ENTRY);
+    }
+
+    /**
+     * Decodes a voyage.
+     *
+     * @param slot The slot of the voyage.
+     * @return A new Bus with the state the voyage had when the snapshot was written.
+     */
+    public Bus load(int slot) {
+        ByteBuffer record = buffer.duplicate();
+        record.position(recordOffset(slot));
+        byte type = record.get();
+        int rows = record.getInt();
+        double price = record.getDouble();
+        int refundCut = record.getInt();
+        int premiumFee = record.getInt();
+        long revenue = record.getLong();
+        String from = readString(record);
+        String to = readString(record);
+        String[] stops = new String[(record.getShort() & 0xffff) + 2];
+        for (int stop = 1; stop < stops.length - 1; stop++) {
+            stops[stop] = readString(record);
+        }
+        int id = idAt(slot);
+        Bus bus;
+        if (type == PREMIUM) {
+            bus = new Premium(id, from, to, rows, price, 0, refundCut, premiumFee);
+        } else if (type == STANDARD) {
+            bus = new Standard(id, from, to, rows, price, 0, refundCut, premiumFee);
+        } else {
+            bus = new Minibus(id, from, to, rows, price, 0, refundCut, premiumFee);
+        }
+        if (stops.length > 2) {
+            stops[0] = from;
+            stops[stops.length - 1] = to;
+            bus.setStops(stops);
+        }
+        bus.setRevenueMicros(revenue);
+        SeatMap seats = bus.getSeats();
+        for (int w = 0; w < seats.wordCount(); w++) {
+            seats.setWord(w, record.getLong());
+        }
+        for (int segment = 0; bus.getSegmentCount() > 1 && segment < bus.getSegmentCount(); segment++) {
+            SeatMap segmentSeats = bus.getSegmentSeats(segment);
+            for (int w = 0; w < segmentSeats.wordCount(); w++) {
+                segmentSeats.setWord(w, record.getLong());
+            }
+        }
+        return bus;
+    }
+
+    /**
+     * Closes the file. The mapping stays valid until it is garbage collected.
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private int recordOffset(int slot) {
+        return (int) buffer.getLong(HEADER + slot * INDEX_ENTRY + 4);
+    }
+
+    private static long recordSize(Bus bus, byte[][] route) {
+        long size = 29 + 2;
+        for (byte[] stop : route) {
+            size += 2 + stop.length;
+        }
+        int segmentMaps = bus.getSegmentCount() > 1 ? bus.getSegmentCount() : 0;
+        return size + 8L * bus.getSeats().wordCount() * (1 + segmentMaps);
+    }
+
+    /**
+     * @return The names of the stops of a voyage in UTF-8, from the departure to the arrival.
+     * @throws IllegalStateException If a name or the number of stops does not fit in its unsigned short field.
+     */
+    private static byte[][] route(Bus bus) {
+        byte[][] route = new byte[bus.getStopCount()][];
+        if (route.length - 2 > MAX_FIELD) {
+            throw new IllegalStateException("Voyage " + bus.getID() + " has too many stops for a snapshot!");
+        }
+        for (int i = 0; i < route.length; i++) {
+            route[i] = bus.getStop(i).getBytes(StandardCharsets.UTF_8);
+            if (route[i].length > MAX_FIELD) {
+                throw new IllegalStateException("A city name of voyage " + bus.getID() + " is longer than "
+                        + MAX_FIELD + " bytes, which a snapshot cannot store!");
+            }
+        }
+        return route;
+    }
+
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getShort() & 0xffff];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
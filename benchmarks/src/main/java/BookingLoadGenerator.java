@@ -0,0 +1,187 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * This class is a load generator for BookingServer. It opens many client connections at once, and every client then
+ * sends SELL_TICKET and REFUND_TICKET commands for random seat groups of a few shared voyages, timing each command
+ * from sending its line until the end of its response. A client sends one command at a time, or a few at once with a
+ * pipeline depth above 1, which the server answers as one batch. The latencies are reported with the histograms
+ * of BookingMetrics. A pause between the commands of a client keeps the total rate below what the server can handle,
+ * so thousands of connections can be held open without the latencies measuring only the queueing.
+ *
+ * Without a port it starts a server in the same process on a free port, so it can be run on its own.
+ */
+public class BookingLoadGenerator {
+    private static final int PRICE = 100;
+    private static final int REFUND_CUT = 10;
+
+    /**
+     * Runs the load.
+     *
+     * @param args Optionally the number of clients, commands per client, voyages, rows, the pause of a client
+     *             between two sends in milliseconds, the number of commands per send and the port of a running
+     *             server.
+     * @throws Exception If a client fails.
+     */
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int commands = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int voyages = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int rows = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int pause = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        int depth = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+        int capacity = rows * CommandStreamGenerator.seatsPerRow("Standard");
+
+        BookingEngine engine = null;
+        BookingServer server = null;
+        int port;
+        if (args.length > 6) {
+            port = Integer.parseInt(args[6]);
+        } else {
+            engine = new BookingEngine();
+            server = new BookingServer(engine, 0);
+            server.start();
+            port = server.getPort();
+        }
+
+        try (Client setup = new Client(port)) {
+            String[] errors = new String[1];
+            long[] latencies = new long[1];
+            for (int id = 1; id <= voyages; id++) {
+                String line = "INIT_VOYAGE\tStandard\t" + id + "\tAnkara\tİstanbul\t" + rows + "\t" + PRICE + "\t" + REFUND_CUT;
+                setup.send(new String[] {line}, 1, errors, latencies);
+            }
+        }
+
+        BookingMetrics metrics = new BookingMetrics(null);
+        CountDownLatch connected = new CountDownLatch(clients);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService threads = VirtualThreads.newThreadPerTaskExecutor("booking-client");
+        List<Future<?>> results = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            long seed = 42 + c;
+            results.add(threads.submit(() -> {
+                // Every client is connected before the first command is sent
+                try (Client client = new Client(port)) {
+                    connected.countDown();
+                    start.await();
+                    Random random = new Random(seed);
+                    // Spread the first commands of the clients over one pause
+                    Thread.sleep(pause == 0 ? 0 : random.nextInt(pause));
+                    String[] lines = new String[depth];
+                    int[] counts = new int[depth];
+                    boolean[] sells = new boolean[depth];
+                    String[] errors = new String[depth];
+                    long[] latencies = new long[depth];
+                    for (int i = 0; i < commands; i += depth) {
+                        int sent = Math.min(depth, commands - i);
+                        for (int k = 0; k < sent; k++) {
+                            int id = 1 + random.nextInt(voyages);
+                            counts[k] = 1 + random.nextInt(4);
+                            int first = 1 + random.nextInt(capacity - counts[k] + 1);
+                            sells[k] = random.nextBoolean();
+                            lines[k] = (sells[k] ? "SELL_TICKET\t" : "REFUND_TICKET\t") + id + "\t" + CommandStreamGenerator.seatGroup(first, counts[k]);
+                        }
+                        client.send(lines, sent, errors, latencies);
+                        for (int k = 0; k < sent; k++) {
+                            metrics.record(sells[k] ? BookingMetrics.SELL_TICKET : BookingMetrics.REFUND_TICKET, latencies[k], errors[k] != null);
+                            if (errors[k] != null) {
+                                metrics.error(errors[k]);
+                            } else if (sells[k]) {
+                                metrics.seatsSold(counts[k]);
+                            } else {
+                                metrics.seatsRefunded(counts[k]);
+                            }
+                        }
+                        Thread.sleep(pause);
+                    }
+                }
+                return null;
+            }));
+        }
+        connected.await();
+        long began = System.nanoTime();
+        start.countDown();
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            threads.shutdownNow();
+            if (server != null) {
+                server.close();
+                engine.close();
+            }
+        }
+        long elapsed = System.nanoTime() - began;
+
+        System.out.print(metrics.report(true));
+        System.out.printf("%d clients (%s threads), %d commands in %.1f ms%n", clients,
+                VirtualThreads.available() ? "virtual" : "platform", (long) clients * commands, elapsed / 1e6);
+    }
+
+    /**
+     * One client connection that sends commands and reads their responses before it sends the next ones.
+     */
+    private static final class Client implements AutoCloseable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+
+        private Client(int port) {
+            try {
+                socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                socket.setTcpNoDelay(true);
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Sends count commands at once and reads their responses, keeping the error of every response (null if the
+         * command succeeded) and the time until it was complete.
+         */
+        private void send(String[] lines, int count, String[] errors, long[] latencies) throws IOException {
+            for (int k = 0; k < count; k++) {
+                out.write(lines[k]);
+                out.write('\n');
+            }
+            long began = System.nanoTime();
+            out.flush();
+            for (int k = 0; k < count; k++) {
+                errors[k] = null;
+                String response;
+                while ((response = in.readLine()) != null && !response.isEmpty()) {
+                    if (response.startsWith("ERROR:")) {
+                        errors[k] = response;
+                    }
+                }
+                if (response == null) {
+                    throw new IOException("The server closed the connection");
+                }
+                latencies[k] = System.nanoTime() - began;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a stress test for BookingEngine. Several channels sell and refund overlapping seat groups of the same
+ * voyages at the same time; afterwards every seat must have been sold at most once more than it was refunded, the
+ * seat maps must agree with the successful commands, and every revenue must match the tickets that were sold and
+ * refunded. The program exits with status 1 if any of these checks fails.
+ */
+public class BookingStress {
+    private static final int PRICE = 100;
+    private static final int REFUND_CUT = 10;
+
+    /**
+     * Runs the stress test.
+     *
+     * @param args Optionally the number of channels, commands per channel, voyages and rows.
+     * @throws InterruptedException If the main thread is interrupted while waiting for the channels.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int channels = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int commands = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int voyages = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int rows = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int capacity = rows * CommandStreamGenerator.seatsPerRow("Standard");
+
+        BookingEngine engine = new BookingEngine();
+        BookingEngine.Channel setup = engine.openChannel(new OutputSink(discard(), OutputSink.FlushPolicy.ON_FULL));
+        for (int id = 1; id <= voyages; id++) {
+            setup.execute("INIT_VOYAGE\tStandard\t" + id + "\tAnkara\tİstanbul\t" + rows + "\t" + PRICE + "\t" + REFUND_CUT);
+        }
+
+        // Net sales of every seat, summed over the channels once they are done
+        AtomicLongArray net = new AtomicLongArray(voyages * capacity);
+        AtomicLongArray sales = new AtomicLongArray(voyages);
+        AtomicLongArray refunds = new AtomicLongArray(voyages);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < channels; c++) {
+            long seed = 42 + c;
+            Thread thread = new Thread(() -> {
+                BookingEngine.Channel channel = engine.openChannel(new OutputSink(discard(), OutputSink.FlushPolicy.ON_FULL));
+                Random random = new Random(seed);
+                long[] local = new long[net.length()];
+                long[] localSales = new long[voyages];
+                long[] localRefunds = new long[voyages];
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < commands; i++) {
+                    int id = 1 + random.nextInt(voyages);
+                    int count = 1 + random.nextInt(4);
+                    int first = 1 + random.nextInt(capacity - count + 1);
+                    boolean sell = random.nextBoolean();
+                    String line = (sell ? "SELL_TICKET\t" : "REFUND_TICKET\t") + id + "\t" + CommandStreamGenerator.seatGroup(first, count);
+                    if (channel.execute(line) == 0) {
+                        for (int seat = first; seat < first + count; seat++) {
+                            local[(id - 1) * capacity + seat - 1] += sell ? 1 : -1;
+                        }
+                        if (sell) {
+                            localSales[id - 1] += count;
+                        } else {
+                            localRefunds[id - 1] += count;
+                        }
+                    }
+                }
+                for (int i = 0; i < local.length; i++) {
+                    net.addAndGet(i, local[i]);
+                }
+                for (int i = 0; i < voyages; i++) {
+                    sales.addAndGet(i, localSales[i]);
+                    refunds.addAndGet(i, localRefunds[i]);
+                }
+            }, "channel-" + c);
+            threads.add(thread);
+            thread.start();
+        }
+        long began = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - began;
+
+        int failures = 0;
+        for (int id = 1; id <= voyages; id++) {
+            Bus bus = engine.getBuses().get(id);
+            long occupied = 0;
+            for (int seat = 0; seat < capacity; seat++) {
+                long n = net.get((id - 1) * capacity + seat);
+                if (n != 0 && n != 1) {
+                    System.out.printf("Voyage %d seat %d: sold %d times more than refunded%n", id, seat + 1, n);
+                    failures++;
+                } else if ((n == 1) != bus.getSeats().isOccupied(seat)) {
+                    System.out.printf("Voyage %d seat %d: seat map does not match the successful commands%n", id, seat + 1);
+                    failures++;
+                }
+                if (n == 1) {
+                    occupied++;
+                }
+            }
+            if (bus.getSeats().occupiedCount() != occupied) {
+                System.out.printf("Voyage %d: %d seats counted as occupied instead of %d%n", id, bus.getSeats().occupiedCount(), occupied);
+                failures++;
+            }
+            // The revenue is kept in micros, so it is exact however the updates interleave
+            long expected = sales.get(id - 1) * PRICE * Bus.MICROS_PER_LIRA
+                    - refunds.get(id - 1) * PRICE * (100L - REFUND_CUT) * (Bus.MICROS_PER_LIRA / 100);
+            if (bus.getRevenueMicros() != expected) {
+                System.out.printf("Voyage %d: revenue %s instead of %s%n", id, Bus.formatMicros(bus.getRevenueMicros()), Bus.formatMicros(expected));
+                failures++;
+            }
+            System.out.printf("Voyage %d: %d seats sold, %d refunded, %d occupied, revenue %.2f%n",
+                    id, sales.get(id - 1), refunds.get(id - 1), occupied, bus.getRevenue());
+        }
+        System.out.printf("%d channels, %d commands in %.1f ms%n", channels, (long) channels * commands, elapsed / 1e6);
+        if (failures > 0) {
+            System.out.println(failures + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    private static Writer discard() {
+        return new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,62 @@
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * This class measures how fast commands are read from a command file and from its binary command log, i.e. the
+ * parsing that comes before PlayGround runs a command. The file is converted to a log next to it, both are read
+ * completely a few times, and the rates of the last round are reported, after the earlier rounds warmed up the JIT.
+ * Every line of the log is checked against the line of the file.
+ */
+public class CommandLogThroughput {
+    /**
+     * Runs the measurement.
+     *
+     * @param args The path of a command file, and optionally the number of rounds.
+     */
+    public static void main(String[] args) throws Exception {
+        String textPath = args[0];
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String binaryPath = textPath + ".bin";
+        BinaryCommandLog log = BinaryCommandLog.convert(textPath, binaryPath);
+        System.out.printf("%d commands (%d raw), %d bytes of text, %d bytes of log%n", log.getCommands(),
+                log.getRawCommands(), Files.size(Paths.get(textPath)), Files.size(Paths.get(binaryPath)));
+
+        try (CommandReader text = CommandReader.open(textPath, true, true);
+             CommandReader binary = CommandReader.open(binaryPath, true, true)) {
+            while (text.hasNext()) {
+                if (!text.next().equals(binary.next())) {
+                    throw new IllegalStateException("The log does not give back the lines of the file!");
+                }
+            }
+            if (binary.hasNext()) {
+                throw new IllegalStateException("The log has more lines than the file!");
+            }
+        }
+
+        for (int round = 1; round <= rounds; round++) {
+            double textRate = rate(textPath);
+            double binaryRate = rate(binaryPath);
+            System.out.printf("round %d: text %.2f M commands/s, binary %.2f M commands/s%n", round,
+                    textRate / 1e6, binaryRate / 1e6);
+        }
+    }
+
+    /**
+     * @return The number of commands read from the file per second.
+     */
+    private static double rate(String path) {
+        long began = System.nanoTime();
+        long commands = 0;
+        long characters = 0; //Keeps the lines from being optimized away
+        try (CommandReader reader = CommandReader.open(path, true, true)) {
+            while (reader.hasNext()) {
+                characters += reader.next().length();
+                commands++;
+            }
+        }
+        if (characters < 0) {
+            System.out.println(characters);
+        }
+        return commands * 1e9 / (System.nanoTime() - began);
+    }
+}
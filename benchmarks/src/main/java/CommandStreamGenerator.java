@@ -0,0 +1,145 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class generates synthetic command streams in the same tab separated format as the sample input files
+ * (i1.txt - i3.txt). The streams are deterministic for a given seed, so benchmark runs can be compared.
+ */
+public class CommandStreamGenerator {
+    private static final String[] CITIES = {"Ankara", "İstanbul", "Sinop", "Rize", "İzmir", "Polatlı", "Pendik", "Halkalı", "Bolu"};
+
+    private final Random random;
+
+    /**
+     * Constructor for the CommandStreamGenerator class.
+     *
+     * @param seed The seed of the random number generator.
+     */
+    public CommandStreamGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Returns the number of seats per row for the given bus type.
+     *
+     * @param busType "Standard", "Premium" or "Minibus".
+     * @return The number of seats in one row.
+     */
+    public static int seatsPerRow(String busType) {
+        if (busType.equals("Standard")) {
+            return 4;
+        } else if (busType.equals("Premium")) {
+            return 3;
+        }
+        return 2;
+    }
+
+    /**
+     * Generates one INIT_VOYAGE command.
+     *
+     * @param busType "Standard", "Premium" or "Minibus".
+     * @param id      The voyage ID.
+     * @param rows    The number of seat rows.
+     * @return The command line.
+     */
+    public String initVoyage(String busType, int id, int rows) {
+        String from = CITIES[random.nextInt(CITIES.length)];
+        String to = CITIES[random.nextInt(CITIES.length)];
+        String line = "INIT_VOYAGE\t" + busType + "\t" + id + "\t" + from + "\t" + to + "\t" + rows + "\t" + (100 + random.nextInt(900));
+        if (busType.equals("Standard")) {
+            line += "\t" + random.nextInt(101);
+        } else if (busType.equals("Premium")) {
+            line += "\t" + random.nextInt(101) + "\t" + random.nextInt(51);
+        }
+        return line;
+    }
+
+    /**
+     * Generates the seat list of a SELL_TICKET or REFUND_TICKET command: a run of consecutive seats.
+     *
+     * @param first The first seat number of the group.
+     * @param count The number of seats in the group.
+     * @return The seats joined with underscores, e.g. "1_2_3_4".
+     */
+    public static String seatGroup(int first, int count) {
+        StringBuilder seats = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                seats.append('_');
+            }
+            seats.append(first + i);
+        }
+        return seats.toString();
+    }
+
+    /**
+     * Generates a mixed command stream that initializes voyages and then sells, refunds, prints and cancels them,
+     * with a Z_REPORT every reportInterval commands.
+     *
+     * @param size           The number of commands in the stream.
+     * @param voyages        The number of voyages initialized at the beginning of the stream.
+     * @param rows           The number of seat rows of every voyage.
+     * @param reportInterval A Z_REPORT is emitted every reportInterval commands, 0 for none.
+     * @return The command lines.
+     */
+    public List<String> mixedStream(int size, int voyages, int rows, int reportInterval) {
+        String[] busTypes = {"Standard", "Premium", "Minibus"};
+        List<String> lines = new ArrayList<>(size);
+        for (int id = 1; id <= voyages && lines.size() < size; id++) {
+            lines.add(initVoyage(busTypes[id % 3], id, rows));
+        }
+        while (lines.size() < size) {
+            if (reportInterval > 0 && lines.size() % reportInterval == 0) {
+                lines.add("Z_REPORT");
+                continue;
+            }
+            int id = 1 + random.nextInt(voyages);
+            int capacity = rows * seatsPerRow(busTypes[id % 3]);
+            int count = 1 + random.nextInt(4);
+            int first = 1 + random.nextInt(Math.max(1, capacity - count + 1));
+            int kind = random.nextInt(100);
+            if (kind < 60) {
+                lines.add("SELL_TICKET\t" + id + "\t" + seatGroup(first, count));
+            } else if (kind < 85) {
+                lines.add("REFUND_TICKET\t" + id + "\t" + seatGroup(first, count));
+            } else if (kind < 98) {
+                lines.add("PRINT_VOYAGE\t" + id);
+            } else {
+                lines.add("CANCEL_VOYAGE\t" + id);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Writes a mixed command stream to a file so it can be run through BookingSystem.
+     *
+     * @param args The output path, the number of commands, and optionally the number of voyages, rows, seed and the
+     *             number of commands between Z_REPORTs (0 for none).
+     * @throws IOException If the file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: CommandStreamGenerator <output file> <commands> [voyages] [rows] [seed] [report interval]");
+            return;
+        }
+        int size = Integer.parseInt(args[1]);
+        int voyages = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        int rows = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 42;
+        int reportInterval = args.length > 5 ? Integer.parseInt(args[5]) : 2;
+        List<String> lines = new CommandStreamGenerator(seed).mixedStream(size, voyages, rows, reportInterval);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(args[0]), StandardCharsets.UTF_8))) {
+            for (String line : lines) {
+                writer.print(line);
+                writer.print('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+
+import benchmarks.BookingDriver;
+
+/**
+ * This class runs the synthetic command streams of the benchmarks through PlayGround. It lives in the default
+ * package so it can reach the booking classes; the benchmarks talk to it through BookingDriver.
+ */
+public class PlayGroundDriver implements BookingDriver {
+    private String[] args;
+    private OutputSink output;
+    private PlayGround playGround;
+    private final CommandTokenizer command = new CommandTokenizer();
+    private String[] initLines;
+    private String[] sellLines;
+    private String[] refundLines;
+    private String[] cancelLines;
+    private VoyageRegistry buses = new VoyageRegistry();
+
+    public void setUp(String busType, int voyages, int rows, String outputPath) {
+        args = new String[]{"input.txt", outputPath};
+        output = new OutputSink(outputPath, false, OutputSink.FlushPolicy.ON_FULL);
+        playGround = new PlayGround(output);
+
+        CommandStreamGenerator generator = new CommandStreamGenerator(42);
+        int rowSize = CommandStreamGenerator.seatsPerRow(busType);
+        initLines = new String[voyages];
+        sellLines = new String[voyages];
+        refundLines = new String[voyages];
+        cancelLines = new String[voyages];
+        for (int i = 0; i < voyages; i++) {
+            int id = i + 1;
+            initLines[i] = generator.initVoyage(busType, id, rows);
+            // Sells the first half of the bus and refunds its first row
+            sellLines[i] = "SELL_TICKET\t" + id + "\t" + CommandStreamGenerator.seatGroup(1, rowSize * Math.max(1, rows / 2));
+            refundLines[i] = "REFUND_TICKET\t" + id + "\t" + CommandStreamGenerator.seatGroup(1, rowSize);
+            cancelLines[i] = "CANCEL_VOYAGE\t" + id;
+        }
+    }
+
+    public void resetEmpty() {
+        buses = new VoyageRegistry();
+    }
+
+    public void resetInitialized() {
+        resetEmpty();
+        initVoyage();
+    }
+
+    public void resetSold() {
+        resetInitialized();
+        sellTicket();
+    }
+
+    public int initVoyage() {
+        int result = 0;
+        for (String line : initLines) {
+            result += playGround.initVoyage(args, command.reset(line), buses);
+        }
+        return result;
+    }
+
+    public int sellTicket() {
+        int result = 0;
+        for (String line : sellLines) {
+            result += playGround.sellTicket(args, buses, command.reset(line));
+        }
+        return result;
+    }
+
+    public int refundTicket() {
+        int result = 0;
+        for (String line : refundLines) {
+            result += playGround.refundTicket(args, buses, command.reset(line));
+        }
+        return result;
+    }
+
+    public int cancelVoyage() {
+        int result = 0;
+        for (String line : cancelLines) {
+            result += playGround.cancelVoyage(args, buses, command.reset(line));
+        }
+        return result;
+    }
+
+    public int zReport() {
+        return playGround.zReport(args, buses);
+    }
+
+    public int writeBusPlan() {
+        int written = 0;
+        for (Bus bus : buses.values()) {
+            bus.writeBusPlan(output);
+            written++;
+        }
+        return written;
+    }
+
+    public void close() {
+        output.close();
+    }
+}
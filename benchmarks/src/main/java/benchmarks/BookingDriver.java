@@ -0,0 +1,56 @@
+package benchmarks;
+
+/**
+ * JMH refuses benchmark classes in the default package, and classes in a named package cannot see the booking
+ * classes, which all live in the default package. This interface is the bridge: it is implemented by
+ * PlayGroundDriver in the default package and loaded by name.
+ *
+ * A driver holds one voyage registry and one synthetic command stream; the reset methods rebuild the registry in
+ * a known state and the run methods push the whole stream through one PlayGround command handler.
+ */
+public interface BookingDriver {
+    /**
+     * Generates the command stream.
+     *
+     * @param busType    "Standard", "Premium" or "Minibus".
+     * @param voyages    The number of voyages in the stream.
+     * @param rows       The number of seat rows of every voyage.
+     * @param outputPath Path of the file the command output is written to.
+     */
+    void setUp(String busType, int voyages, int rows, String outputPath);
+
+    /** Empties the registry. */
+    void resetEmpty();
+
+    /** Initializes every voyage of the stream with no seat sold. */
+    void resetInitialized();
+
+    /** Initializes every voyage of the stream and sells half of each bus. */
+    void resetSold();
+
+    int initVoyage();
+
+    int sellTicket();
+
+    int refundTicket();
+
+    int cancelVoyage();
+
+    int zReport();
+
+    int writeBusPlan();
+
+    /** Closes the output. */
+    void close();
+
+    /**
+     * @return A new instance of the default package implementation.
+     */
+    static BookingDriver load() {
+        try {
+            return (BookingDriver) Class.forName("PlayGroundDriver").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("PlayGroundDriver is not on the class path", e);
+        }
+    }
+}
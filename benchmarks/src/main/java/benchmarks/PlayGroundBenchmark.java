@@ -0,0 +1,122 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * JMH benchmarks for the PlayGround command handlers. Every benchmark method pushes one synthetic command stream
+ * (one command per voyage) through a single handler for a single bus type, so the reported time is per stream.
+ * Handlers that change the registry get a freshly built one before every invocation.
+ *
+ * Run with: java -jar benchmarks/target/benchmarks.jar PlayGroundBenchmark -p voyages=10000
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PlayGroundBenchmark {
+    @Param({"Standard", "Premium", "Minibus"})
+    public String busType;
+
+    @Param({"1000"})
+    public int voyages;
+
+    @Param({"10"})
+    public int rows;
+
+    private BookingDriver driver;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        driver = BookingDriver.load();
+        driver.setUp(busType, voyages, rows, outputPath());
+        driver.resetSold();
+    }
+
+    /**
+     * Rebuilds the registry in the state the next benchmark invocation expects. The read-only benchmarks keep the
+     * registry built in setUp.
+     *
+     * @param params The parameters of the running benchmark.
+     */
+    @Setup(Level.Invocation)
+    public void resetRegistry(BenchmarkParams params) {
+        String benchmark = params.getBenchmark();
+        if (benchmark.endsWith(".initVoyage")) {
+            driver.resetEmpty();
+        } else if (benchmark.endsWith(".sellTicket")) {
+            driver.resetInitialized();
+        } else if (benchmark.endsWith(".refundTicket") || benchmark.endsWith(".cancelVoyage")) {
+            driver.resetSold();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        driver.close();
+    }
+
+    @Benchmark
+    public int initVoyage() {
+        return driver.initVoyage();
+    }
+
+    @Benchmark
+    public int sellTicket() {
+        return driver.sellTicket();
+    }
+
+    @Benchmark
+    public int refundTicket() {
+        return driver.refundTicket();
+    }
+
+    @Benchmark
+    public int cancelVoyage() {
+        return driver.cancelVoyage();
+    }
+
+    @Benchmark
+    public int zReport() {
+        return driver.zReport();
+    }
+
+    @Benchmark
+    public int writeBusPlan() {
+        return driver.writeBusPlan();
+    }
+
+    /**
+     * The benchmarks measure command handling, not the disk, so output goes to /dev/null when it is available.
+     *
+     * @return The path the benchmark output is written to.
+     * @throws IOException If a temporary file cannot be created.
+     */
+    static String outputPath() throws IOException {
+        File devNull = new File("/dev/null");
+        if (devNull.exists()) {
+            return devNull.getPath();
+        }
+        File file = File.createTempFile("booking-benchmark", ".txt");
+        file.deleteOnExit();
+        return file.getPath();
+    }
+}
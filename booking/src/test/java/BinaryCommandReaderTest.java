@@ -0,0 +1,85 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests that a binary command log converted from a command file replays exactly the lines of the file, and that
+ * running it writes exactly the output of running the file.
+ */
+class BinaryCommandReaderTest {
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"i1.txt", "i2.txt", "i3.txt"})
+    void replaysTheSamples(String sample) throws IOException {
+        assertSameReplay(Paths.get(BookingFixtures.SAMPLES, sample));
+    }
+
+    @Test
+    void replaysAMixedStreamMostlyInBinaryForm() throws IOException {
+        Path input = BookingFixtures.write(directory.resolve("input.txt"), BookingFixtures.mixedStream(29, 20000, 40, 6));
+        BinaryCommandLog log = assertSameReplay(input);
+        assertTrue(log.getRawCommands() * 10 < log.getCommands(), log.getRawCommands() + " raw commands");
+    }
+
+    @Test
+    void replaysLinesWithoutACanonicalFormAsText() throws IOException {
+        Path input = BookingFixtures.write(directory.resolve("input.txt"), Arrays.asList(
+                "INIT_VOYAGE\tStandard\t1\tAnkara\tİstanbul\t5\t100.50\t10",
+                "INIT_VOYAGE\tPremium\t2\tSinop\tRize\t4\t0250\t25\t20",
+                "INIT_VOYAGE\tMinibus\t3\tBolu\tDüzce\t3\t1e2",
+                "SELL_TICKET\t01\t1_2",
+                "SELL_TICKET\t1\t4_3\tfoo",
+                "SELL_TICKET\t2\t+3",
+                "REFUND_TICKET\t1\t1_1",
+                "PRINT_VOYAGE\t1\t",
+                "print_voyage\t2",
+                "SELL_BEST\t1\t2\tPremium",
+                "HOLD_SEATS\t2\t5_6\t-1",
+                "CONFIRM_HOLD\t999999999999",
+                "SEARCH_VOYAGES\tAnkara\tİstanbul",
+                "CANCEL_ROUTE\tSinop\tRize",
+                "Z_REPORT\tnow"));
+        BinaryCommandLog log = assertSameReplay(input);
+        assertTrue(log.getRawCommands() > 0);
+    }
+
+    private BinaryCommandLog assertSameReplay(Path input) throws IOException {
+        Path binary = directory.resolve("input.bin");
+        BinaryCommandLog log = BinaryCommandLog.convert(input.toString(), binary.toString());
+        assertTrue(BinaryCommandLog.isLog(binary.toString()));
+
+        List<String> expected = lines(input);
+        assertEquals(expected.size(), log.getCommands());
+        assertEquals(expected, lines(binary));
+        assertArrayEquals(BookingFixtures.run(input, directory.resolve("text.txt"), 1, new VoyageRegistry()),
+                BookingFixtures.run(binary, directory.resolve("binary.txt"), 1, new VoyageRegistry()));
+        return log;
+    }
+
+    private static List<String> lines(Path path) {
+        List<String> lines = new ArrayList<>();
+        CommandReader commands = CommandReader.open(path.toString(), true, true);
+        try {
+            while (commands.hasNext()) {
+                lines.add(commands.next());
+            }
+        } finally {
+            commands.close();
+        }
+        return lines;
+    }
+}
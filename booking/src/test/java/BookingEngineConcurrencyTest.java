@@ -0,0 +1,136 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests BookingEngine under contention: several channels sell and refund overlapping seat groups of the same voyages
+ * at the same time, some of them one command at a time and some in batches. No seat may end up sold twice, and the
+ * seat maps and revenues must equal those of a sequential run of the same successful sales and refunds.
+ */
+class BookingEngineConcurrencyTest {
+    private static final int CHANNELS = 8;
+    private static final int COMMANDS = 100000;
+    private static final int VOYAGES = 2;
+    private static final int ROWS = 4;
+    private static final int CAPACITY = ROWS * BookingFixtures.seatsPerRow("Standard");
+    private static final int BATCH = 16;
+
+    @Test
+    void concurrentSalesAndRefundsMatchASequentialRun() throws Exception {
+        BookingEngine engine = new BookingEngine();
+        initVoyages(engine);
+
+        // Successful sales and refunds of every seat, counted by each channel and summed once they are done
+        long[][] counts = new long[CHANNELS][];
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(CHANNELS);
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int c = 0; c < CHANNELS; c++) {
+            long seed = 42 + c;
+            boolean batched = c % 2 == 1;
+            results.add(pool.submit(() -> channel(engine, seed, batched, start)));
+        }
+        start.countDown();
+        for (int c = 0; c < CHANNELS; c++) {
+            counts[c] = results.get(c).get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        long[] sales = new long[VOYAGES * CAPACITY];
+        long[] refunds = new long[VOYAGES * CAPACITY];
+        for (long[] channel : counts) {
+            for (int i = 0; i < sales.length; i++) {
+                sales[i] += channel[i];
+                refunds[i] += channel[sales.length + i];
+            }
+        }
+        assertTrue(Arrays.stream(sales).sum() > 0, "no sale succeeded");
+        assertTrue(Arrays.stream(refunds).sum() > 0, "no refund succeeded");
+        for (int i = 0; i < sales.length; i++) {
+            long net = sales[i] - refunds[i];
+            assertTrue(net == 0 || net == 1, "voyage " + (1 + i / CAPACITY) + " seat " + (1 + i % CAPACITY)
+                    + " was sold " + net + " times more than it was refunded");
+        }
+
+        // Every successful sale and refund of a seat, in an order that is valid for one channel alone
+        BookingEngine sequential = new BookingEngine();
+        initVoyages(sequential);
+        BookingEngine.Channel replay = sequential.openChannel(OutputSink.discard());
+        for (int i = 0; i < sales.length; i++) {
+            String seat = (1 + i / CAPACITY) + "\t" + (1 + i % CAPACITY);
+            for (long n = 0; n < sales[i]; n++) {
+                assertEquals(0, replay.execute("SELL_TICKET\t" + seat));
+                if (n < refunds[i]) {
+                    assertEquals(0, replay.execute("REFUND_TICKET\t" + seat));
+                }
+            }
+        }
+        assertEquals(BookingFixtures.state(sequential.getBuses()), BookingFixtures.state(engine.getBuses()));
+        for (int id = 1; id <= VOYAGES; id++) {
+            Bus bus = engine.getBuses().get(id);
+            long occupied = 0;
+            for (int seat = 0; seat < CAPACITY; seat++) {
+                occupied += sales[(id - 1) * CAPACITY + seat] - refunds[(id - 1) * CAPACITY + seat];
+            }
+            assertEquals(occupied, bus.getSeats().occupiedCount(), "occupied seats of voyage " + id);
+        }
+        engine.close();
+        sequential.close();
+    }
+
+    private static void initVoyages(BookingEngine engine) {
+        BookingEngine.Channel setup = engine.openChannel(OutputSink.discard());
+        for (int id = 1; id <= VOYAGES; id++) {
+            assertEquals(0, setup.execute("INIT_VOYAGE\tStandard\t" + id + "\tAnkara\tİstanbul\t" + ROWS + "\t100.25\t10"));
+        }
+    }
+
+    /**
+     * Runs the commands of one channel.
+     *
+     * @return The successful sales of every seat followed by its successful refunds.
+     */
+    private static long[] channel(BookingEngine engine, long seed, boolean batched, CountDownLatch start)
+            throws InterruptedException {
+        BookingEngine.Channel channel = engine.openChannel(OutputSink.discard());
+        Random random = new Random(seed);
+        long[] counts = new long[2 * VOYAGES * CAPACITY];
+        List<String> lines = new ArrayList<>(BATCH);
+        List<int[]> groups = new ArrayList<>(BATCH);
+        start.await();
+        for (int i = 0; i < COMMANDS; i++) {
+            int id = 1 + random.nextInt(VOYAGES);
+            int count = 1 + random.nextInt(4);
+            int first = 1 + random.nextInt(CAPACITY - count + 1);
+            boolean sell = random.nextBoolean();
+            lines.add((sell ? "SELL_TICKET\t" : "REFUND_TICKET\t") + id + "\t" + BookingFixtures.seatGroup(first, count));
+            groups.add(new int[]{sell ? 0 : 1, id, first, count});
+            if (!batched || lines.size() == BATCH || i == COMMANDS - 1) {
+                int[] status = batched ? channel.executeBatch(lines, "\n") : new int[]{channel.execute(lines.get(0))};
+                for (int j = 0; j < lines.size(); j++) {
+                    if (status[j] == 0) {
+                        int[] group = groups.get(j);
+                        int base = group[0] * VOYAGES * CAPACITY + (group[1] - 1) * CAPACITY - 1;
+                        for (int seat = group[2]; seat < group[2] + group[3]; seat++) {
+                            counts[base + seat]++;
+                        }
+                    }
+                }
+                lines.clear();
+                groups.clear();
+            }
+        }
+        return counts;
+    }
+}
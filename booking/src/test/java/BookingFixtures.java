@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * This class holds what the tests share: a generator of command streams that use every kind of voyage and command,
+ * a runner that processes a command file like BookingSystem does, and a rendering of the state of a set of voyages
+ * that two runs can be compared by.
+ */
+final class BookingFixtures {
+    /** The sample inputs, relative to the module directory the tests run in. */
+    static final String SAMPLES = "../BBM104_S24_PA2_Sample_IO_v1.0.3";
+
+    private static final String[] BUS_TYPES = {"Standard", "Premium", "Minibus"};
+    private static final String[] STOPS = {"Ankara", "Bolu", "Düzce", "İstanbul"};
+
+    private BookingFixtures() {
+    }
+
+    /**
+     * @param busType "Standard", "Premium" or "Minibus".
+     * @return The number of seats in a row of the bus type.
+     */
+    static int seatsPerRow(String busType) {
+        if (busType.equals("Standard")) {
+            return 4;
+        } else if (busType.equals("Premium")) {
+            return 3;
+        }
+        return 2;
+    }
+
+    /**
+     * @param first The first seat number.
+     * @param count The number of adjacent seats.
+     * @return The seats joined with underscores, as SELL_TICKET and REFUND_TICKET take them.
+     */
+    static String seatGroup(int first, int count) {
+        StringBuilder seats = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                seats.append('_');
+            }
+            seats.append(first + i);
+        }
+        return seats.toString();
+    }
+
+    /**
+     * Generates a command stream that initializes voyages of every type, some of them with intermediate stops, and
+     * then sells, refunds, holds, prints, searches, cancels and initializes them again, with Z reports and invalid
+     * commands in between.
+     *
+     * @param seed    The seed of the random number generator.
+     * @param size    The number of commands after the first INIT_VOYAGEs, not counting those after a cancellation.
+     * @param voyages The number of voyages.
+     * @param rows    The number of seat rows of every voyage.
+     * @return The command lines.
+     */
+    static List<String> mixedStream(long seed, int size, int voyages, int rows) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>(voyages + size);
+        for (int id = 1; id <= voyages; id++) {
+            lines.add(initVoyage(id, rows));
+        }
+        int holds = 0;
+        int[] heldUntil = new int[voyages + 1]; // The line after which the pending hold of a voyage is gone
+        for (int i = 0; i < size; i++) {
+            int id = 1 + random.nextInt(voyages + 1); // One ID past the voyages, which does not exist
+            int capacity = rows * seatsPerRow(BUS_TYPES[id % 3]);
+            int count = 1 + random.nextInt(3);
+            int first = 1 + random.nextInt(capacity - count + 1);
+            String seats = seatGroup(first, count);
+            int kind = random.nextInt(100);
+            if (kind < 30) {
+                lines.add("SELL_TICKET\t" + id + "\t" + seats + segment(random, id));
+            } else if (kind < 55) {
+                lines.add("REFUND_TICKET\t" + id + "\t" + seats + segment(random, id));
+            } else if (kind < 62) {
+                lines.add("SELL_BEST\t" + id + "\t" + count);
+            } else if (kind < 68) {
+                // Holds are put on refundable voyages without stops and without a pending hold, whose seats are
+                // refunded one by one first, so they succeed and get the next hold ID; most of them are then
+                // confirmed or released right away
+                int held = id % 3 == 2 || id % 4 == 0 || id > voyages ? 1 : id;
+                int seat = 1 + random.nextInt(rows * seatsPerRow(BUS_TYPES[held % 3]) - 1);
+                lines.add("REFUND_TICKET\t" + held + "\t" + seat);
+                lines.add("REFUND_TICKET\t" + held + "\t" + (seat + 1));
+                if (lines.size() > heldUntil[held]) {
+                    int seconds = 1 + random.nextInt(20);
+                    lines.add("HOLD_SEATS\t" + held + "\t" + seatGroup(seat, 2) + "\t" + seconds);
+                    holds++;
+                    heldUntil[held] = lines.size() + seconds;
+                    int outcome = random.nextInt(4);
+                    if (outcome < 2) {
+                        lines.add("CONFIRM_HOLD\t" + holds);
+                        heldUntil[held] = 0;
+                    } else if (outcome == 2) {
+                        lines.add("RELEASE_HOLD\t" + holds);
+                        heldUntil[held] = 0;
+                    }
+                }
+            } else if (kind < 69) {
+                lines.add("CONFIRM_HOLD\t" + (1 + random.nextInt(holds + 1)));
+            } else if (kind < 70) {
+                lines.add("RELEASE_HOLD\t" + (1 + random.nextInt(holds + 1)));
+            } else if (kind < 82) {
+                lines.add("PRINT_VOYAGE\t" + id);
+            } else if (kind < 86) {
+                lines.add("SEARCH_VOYAGES\tAnkara\tİstanbul\t" + count);
+            } else if (kind < 88) {
+                // The voyage comes back right away, so the stream does not run out of voyages
+                lines.add("CANCEL_VOYAGE\t" + id);
+                lines.add(initVoyage(id, rows));
+            } else if (kind < 96) {
+                lines.add("Z_REPORT");
+            } else if (kind < 98) {
+                lines.add("SELL_TICKET\t" + id + "\t0_" + seats);
+            } else {
+                lines.add("UNKNOWN_COMMAND\t" + id);
+            }
+        }
+        return lines;
+    }
+
+    private static String initVoyage(int id, int rows) {
+        String busType = BUS_TYPES[id % 3];
+        String line = "INIT_VOYAGE\t" + busType + "\t" + id + "\tAnkara\tİstanbul\t" + rows + "\t" + (100 + 7 * id) + ".5";
+        if (busType.equals("Standard")) {
+            line += "\t10";
+        } else if (busType.equals("Premium")) {
+            line += "\t25\t20";
+        }
+        // Every fourth voyage stops at the cities in between
+        return id % 4 == 0 ? line + "\tVIA\tBolu\tDüzce" : line;
+    }
+
+    private static String segment(Random random, int id) {
+        if (id % 4 != 0 || random.nextBoolean()) {
+            return "";
+        }
+        int from = random.nextInt(STOPS.length - 1);
+        int to = from + 1 + random.nextInt(STOPS.length - 1 - from);
+        return "\t" + STOPS[from] + "\t" + STOPS[to];
+    }
+
+    /**
+     * Writes command lines to a file, one per line.
+     *
+     * @param file  The file.
+     * @param lines The command lines.
+     * @return The file.
+     * @throws IOException If the file cannot be written.
+     */
+    static Path write(Path file, List<String> lines) throws IOException {
+        return Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Processes a command file into an output file like BookingSystem does without a journal or a snapshot.
+     *
+     * @param input       The command file, text or binary.
+     * @param output      The output file, overwritten.
+     * @param parallelism The number of threads, 1 for the sequential PlayGround.
+     * @param buses       The voyages the commands start from, updated by them.
+     * @return The content of the output file.
+     * @throws IOException If the output file cannot be read back.
+     */
+    static byte[] run(Path input, Path output, int parallelism, Map<Integer, Bus> buses) throws IOException {
+        return run(input, output, parallelism, buses, null);
+    }
+
+    /**
+     * Processes a command file into an output file like BookingSystem does, recording the commands that change the
+     * voyages in a journal.
+     *
+     * @param input       The command file, text or binary.
+     * @param output      The output file, overwritten.
+     * @param parallelism The number of threads, 1 for the sequential PlayGround.
+     * @param buses       The voyages the commands start from, updated by them.
+     * @param journal     The journal, null for none. It is left open.
+     * @return The content of the output file.
+     * @throws IOException If the output file cannot be read back.
+     */
+    static byte[] run(Path input, Path output, int parallelism, Map<Integer, Bus> buses, BookingJournal journal)
+            throws IOException {
+        String[] args = {input.toString(), output.toString()};
+        CommandReader commands = CommandReader.open(args[0], true, true);
+        OutputSink sink = new OutputSink(args[1], false, OutputSink.FlushPolicy.ON_FULL);
+        try {
+            if (parallelism > 1) {
+                ParallelBatchProcessor processor = new ParallelBatchProcessor(sink, parallelism);
+                processor.setJournal(journal);
+                processor.readProcessData(args, commands, buses);
+            } else {
+                PlayGround playGround = new PlayGround(sink);
+                playGround.setJournal(journal);
+                playGround.readProcessData(args, commands, buses);
+            }
+        } finally {
+            sink.close();
+            commands.close();
+        }
+        return Files.readAllBytes(output);
+    }
+
+    /**
+     * Renders every voyage in ascending order of the IDs with its seat plan, revenue in micros and the seats sold on
+     * each of its segments, so two sets of voyages are in the same state exactly when their renderings are equal.
+     *
+     * @param buses The voyages.
+     * @return The rendering.
+     */
+    static String state(Map<Integer, Bus> buses) {
+        StringBuilder state = new StringBuilder();
+        for (int id : new TreeSet<>(buses.keySet())) {
+            Bus bus = buses.get(id);
+            state.append(bus.getClass().getSimpleName()).append(' ').append(bus.renderVoyage())
+                    .append(bus.getRevenueMicros()).append('\n');
+            for (int s = 0; s < bus.getSegmentCount(); s++) {
+                SeatMap seats = bus.getSegmentSeats(s);
+                for (int w = 0; w < seats.wordCount(); w++) {
+                    state.append(Long.toHexString(seats.getWord(w))).append(' ');
+                }
+                state.append('\n');
+            }
+        }
+        return state.toString();
+    }
+}
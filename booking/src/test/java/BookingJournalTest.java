@@ -0,0 +1,98 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that a journal brings the next run back to the state the previous one ended with, also when the previous run
+ * stopped in the middle of a record.
+ */
+class BookingJournalTest {
+    private static final int GROUP_SIZE = 7;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoversTheVoyagesOfThePreviousRun() throws IOException {
+        VoyageRegistry buses = new VoyageRegistry();
+        journaledRun(buses);
+
+        assertEquals(BookingFixtures.state(buses), recover());
+    }
+
+    @Test
+    void discardsARecordThatWasNotWrittenCompletely() throws IOException {
+        VoyageRegistry buses = new VoyageRegistry();
+        journaledRun(buses);
+        Path journal = directory.resolve("journal.bin");
+        long size = Files.size(journal);
+        // The length, the command and a part of the line of a SELL_TICKET record
+        Files.write(journal, new byte[]{0, 0, 0, 14, BookingJournal.SELL_TICKET, 'S', 'E', 'L', 'L'},
+                StandardOpenOption.APPEND);
+
+        assertEquals(BookingFixtures.state(buses), recover());
+        assertEquals(size, Files.size(journal));
+
+        // New records follow the last complete one, so they are recovered as well
+        BookingJournal reopened = BookingJournal.open(journal.toString(), GROUP_SIZE, new VoyageRegistry());
+        PlayGround playGround = new PlayGround(OutputSink.discard());
+        playGround.setJournal(reopened);
+        assertEquals(0, playGround.executeCommand(new String[0],
+                "INIT_VOYAGE\tMinibus\t1000\tSinop\tRize\t3\t75", false, buses));
+        reopened.close();
+        assertEquals(BookingFixtures.state(buses), recover());
+    }
+
+    @Test
+    void refusesACommandTooLongToBeRecovered() throws IOException {
+        VoyageRegistry buses = new VoyageRegistry();
+        journaledRun(buses);
+        Path journal = directory.resolve("journal.bin");
+        long size = Files.size(journal);
+
+        BookingJournal reopened = BookingJournal.open(journal.toString(), GROUP_SIZE, new VoyageRegistry());
+        PlayGround playGround = new PlayGround(OutputSink.discard());
+        playGround.setJournal(reopened);
+        char[] stops = new char[BookingJournal.MAX_RECORD];
+        Arrays.fill(stops, 'x');
+        String line = "INIT_VOYAGE\tMinibus\t1000\tSinop\tRize\t3\t75\tVIA\t" + new String(stops);
+        assertNotEquals(0, playGround.executeCommand(new String[0], line, false, buses));
+        reopened.close();
+
+        assertEquals(size, Files.size(journal));
+        assertEquals(BookingFixtures.state(buses), recover());
+    }
+
+    /**
+     * Runs a command stream with a journal, which is closed afterwards.
+     */
+    private void journaledRun(VoyageRegistry buses) throws IOException {
+        Path input = BookingFixtures.write(directory.resolve("input.txt"),
+                BookingFixtures.mixedStream(7, 3000, 12, 8));
+        BookingJournal journal = BookingJournal.open(directory.resolve("journal.bin").toString(), GROUP_SIZE, buses);
+        try {
+            BookingFixtures.run(input, directory.resolve("output.txt"), 1, buses, journal);
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Recovers the journal into empty voyages.
+     *
+     * @return The state of the recovered voyages.
+     */
+    private String recover() {
+        VoyageRegistry recovered = new VoyageRegistry();
+        BookingJournal.open(directory.resolve("journal.bin").toString(), GROUP_SIZE, recovered).close();
+        return BookingFixtures.state(recovered);
+    }
+}
@@ -0,0 +1,42 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests that processing a command file on several threads writes exactly the output of the sequential PlayGround and
+ * leaves the voyages in the same state.
+ */
+class ParallelBatchProcessorTest {
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"i1.txt", "i2.txt", "i3.txt"})
+    void matchesTheSequentialRunOnTheSamples(String sample) throws IOException {
+        assertSameRun(Paths.get(BookingFixtures.SAMPLES, sample), 3);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {2, 4, 7})
+    void matchesTheSequentialRunOnAMixedStream(int parallelism) throws IOException {
+        Path input = BookingFixtures.write(directory.resolve("input.txt"), BookingFixtures.mixedStream(23, 20000, 40, 6));
+        assertSameRun(input, parallelism);
+    }
+
+    private void assertSameRun(Path input, int parallelism) throws IOException {
+        VoyageRegistry sequential = new VoyageRegistry();
+        VoyageRegistry parallel = new VoyageRegistry();
+        byte[] expected = BookingFixtures.run(input, directory.resolve("sequential.txt"), 1, sequential);
+
+        assertArrayEquals(expected, BookingFixtures.run(input, directory.resolve("parallel.txt"), parallelism, parallel));
+        assertEquals(BookingFixtures.state(sequential), BookingFixtures.state(parallel));
+    }
+}
@@ -0,0 +1,77 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that a snapshot gives back every voyage as it was saved, and that the voyages it decodes behave like the
+ * originals when the next run changes them.
+ */
+class VoyageSnapshotTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsEveryVoyage() throws IOException {
+        VoyageRegistry buses = new VoyageRegistry();
+        BookingFixtures.run(BookingFixtures.write(directory.resolve("input.txt"),
+                BookingFixtures.mixedStream(11, 3000, 12, 8)), directory.resolve("output.txt"), 1, buses);
+        String snapshotPath = directory.resolve("snapshot.bin").toString();
+        VoyageSnapshot.write(snapshotPath, buses, 1234);
+
+        try (VoyageSnapshot snapshot = VoyageSnapshot.open(snapshotPath)) {
+            assertEquals(buses.size(), snapshot.size());
+            assertEquals(1234, snapshot.getJournalPosition());
+            assertEquals(BookingFixtures.state(buses), BookingFixtures.state(new VoyageRegistry(snapshot)));
+        }
+    }
+
+    @Test
+    void continuesLikeTheJournalOfTheSameRun() throws IOException {
+        Path journal = directory.resolve("journal.bin");
+        VoyageRegistry buses = new VoyageRegistry();
+        BookingJournal first = BookingJournal.open(journal.toString(), 16, buses);
+        try {
+            BookingFixtures.run(BookingFixtures.write(directory.resolve("first.txt"),
+                    BookingFixtures.mixedStream(13, 3000, 12, 8)), directory.resolve("output.txt"), 1, buses, first);
+        } finally {
+            first.close();
+        }
+        String snapshotPath = directory.resolve("snapshot.bin").toString();
+        VoyageSnapshot.write(snapshotPath, buses, Files.size(journal));
+
+        // The next run, once from the snapshot and once from the journal alone
+        Path next = BookingFixtures.write(directory.resolve("next.txt"), BookingFixtures.mixedStream(17, 3000, 14, 8));
+        VoyageRegistry recovered = new VoyageRegistry();
+        BookingJournal.open(journal.toString(), 16, recovered).close();
+        byte[] expected = BookingFixtures.run(next, directory.resolve("recovered.txt"), 1, recovered);
+        try (VoyageSnapshot snapshot = VoyageSnapshot.open(snapshotPath)) {
+            VoyageRegistry restored = new VoyageRegistry(snapshot);
+            // Nothing after the position of the snapshot is replayed
+            BookingJournal.open(journal.toString(), 16, restored, snapshot.getJournalPosition()).close();
+            assertArrayEquals(expected, BookingFixtures.run(next, directory.resolve("restored.txt"), 1, restored));
+            assertEquals(BookingFixtures.state(recovered), BookingFixtures.state(restored));
+        }
+    }
+
+    @Test
+    void refusesACityNameTooLongToBeStored() {
+        char[] name = new char[0x10000];
+        Arrays.fill(name, 'x');
+        VoyageRegistry buses = new VoyageRegistry();
+        assertEquals(0, new PlayGround(OutputSink.discard()).executeCommand(new String[0],
+                "INIT_VOYAGE\tMinibus\t1\tSinop\t" + new String(name) + "\t3\t75", false, buses));
+        Path snapshot = directory.resolve("snapshot.bin");
+
+        assertThrows(IllegalStateException.class, () -> VoyageSnapshot.write(snapshot.toString(), buses, 0));
+        assertFalse(Files.exists(snapshot));
+    }
+}